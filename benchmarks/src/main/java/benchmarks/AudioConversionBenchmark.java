@@ -0,0 +1,100 @@
+package benchmarks;
+
+import audioProcessing.AudioProcessor;
+import audioProcessing.Normalizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Benchmarks the first steps of the audio pipeline, decoding and normalizing a frame. One operation is one frame.
+ *
+ * @author Alexander Liebald
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioConversionBenchmark {
+	/**
+	 * Recorded audio file, empty for a synthetic click track
+	 */
+	@Param({""})
+	public String file;
+
+	/**
+	 * Bytes per frame, 1024 is one mono frame of the BeatDetector
+	 */
+	@Param({"1024"})
+	public int frameSize;
+
+	private byte[][] pcm;
+	private int frames;
+	private int frame = 0;
+	private short[] samples;
+	private short[][] decoded;
+	private Normalizer normalizer;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] data = PcmData.load(file).getPcm();
+		frames = data.length / frameSize;
+		pcm = new byte[frames][frameSize];
+		decoded = new short[frames][frameSize / 2];
+		for (int i = 0; i < frames; i++) {
+			System.arraycopy(data, i * frameSize, pcm[i], 0, frameSize);
+			// Decoded frames for the normalizer, so it sees the same audio as in the BeatDetector
+			AudioProcessor.convertByteToShortArray(pcm[i], frameSize, decoded[i]);
+		}
+		samples = new short[frameSize / 2];
+		normalizer = new Normalizer();
+	}
+
+	/**
+	 * @return index of the next frame, cycling through the audio
+	 */
+	private int nextFrame() {
+		int current = frame;
+		frame = current + 1 == frames ? 0 : current + 1;
+		return current;
+	}
+
+	/**
+	 * Decodes into a reused array, as done by the BeatDetector.
+	 */
+	@Benchmark
+	public int convertByteToShortArray() {
+		return AudioProcessor.convertByteToShortArray(pcm[nextFrame()], frameSize, samples);
+	}
+
+	/**
+	 * Decodes into a new array, for comparison.
+	 */
+	@Benchmark
+	public short[] convertByteToShortArrayAllocating() {
+		return AudioProcessor.convertByteToShortArray(pcm[nextFrame()]);
+	}
+
+	@Benchmark
+	public short[] normalize() {
+		return normalizer.normalize(decoded[nextFrame()]);
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import audioProcessing.BeatDetector;
+import audioProcessing.DetectionEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Benchmarks the whole analysis of a frame by the BeatDetector for every detection engine:
+ * decoding, normalizing, beat detection, tempo estimation and beat prediction. One operation is one frame.
+ * The audio is repeated from memory, so reading it costs a copy of the frame.
+ *
+ * @author Alexander Liebald
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeatDetectorBenchmark {
+	/**
+	 * Recorded audio file, empty for a synthetic click track
+	 */
+	@Param({""})
+	public String file;
+
+	@Param({"ENERGY", "SPECTRAL", "ONSET"})
+	public DetectionEngine engine;
+
+	private BeatDetector beatDetector;
+
+	@Setup
+	public void setUp() throws Exception {
+		beatDetector = new BeatDetector(150, PcmData.load(file).loop(), 1.0d);
+		beatDetector.setEngine(engine);
+	}
+
+	@TearDown
+	public void tearDown() {
+		beatDetector.close();
+	}
+
+	@Benchmark
+	public boolean detect() {
+		return beatDetector.detect();
+	}
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate and the allocated bytes per operation (gc.alloc.rate.norm).
+ * Accepts the usual JMH arguments, e.g. a regular expression selecting benchmarks or {@code -p file=recording.wav}.
+ *
+ * Benchmarks measuring one frame per operation ({@link AudioConversionBenchmark}, {@link BeatDetectorBenchmark}, {@link EnergyHistoryBenchmark}) are summarized in frames per second
+ * and in percent of the time budget of a frame. A frame of 512 samples at 44100Hz has to be processed in 11.6ms.
+ *
+ * @author Alexander Liebald
+ */
+public class BenchmarkMain {
+	private static final double frameBudgetNanos = 512 / 44100.0d * 1e9;
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		System.out.println("\nFrames per second and share of the frame budget:");
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			// Only average times in ns/op can be converted, e.g. not if the time unit was changed by an argument
+			if (!benchmark.contains("AudioConversionBenchmark") && !benchmark.contains("BeatDetectorBenchmark") && !benchmark.contains("EnergyHistoryBenchmark")
+					|| !"ns/op".equals(result.getPrimaryResult().getScoreUnit())) {
+				continue;
+			}
+			double nanos = result.getPrimaryResult().getScore();
+			String engine = result.getParams().getParam("engine");
+			String capacity = result.getParams().getParam("capacity");
+			System.out.println(String.format(Locale.ROOT, "%-70s %12.0f frames/s %8.4f%% of budget",
+					benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1) + (engine != null ? " " + engine : "") + (capacity != null ? " " + capacity : ""),
+					1e9 / nanos, 100 * nanos / frameBudgetNanos));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import audioProcessing.AudioProcessor;
+import audioProcessing.EnergyHistory;
+import audioProcessing.Normalizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Benchmarks the energy history of the BeatDetector with windows of different length. One operation is one frame,
+ * adding its energy and reading the mean and the mean absolute deviation. The time should not grow with the capacity.
+ *
+ * @author Alexander Liebald
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnergyHistoryBenchmark {
+	/**
+	 * Recorded audio file, empty for a synthetic click track
+	 */
+	@Param({""})
+	public String file;
+
+	/**
+	 * Number of frames in the history, 86 is the default of the BeatDetector (about two seconds)
+	 */
+	@Param({"86", "860", "8600"})
+	public int capacity;
+
+	private static final int frameSize = 1024;
+
+	private long[] energies;
+	private int frame = 0;
+	private EnergyHistory history;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] data = PcmData.load(file).getPcm();
+		int frames = data.length / frameSize;
+		energies = new long[frames];
+		byte[] pcm = new byte[frameSize];
+		short[] samples = new short[frameSize / 2];
+		Normalizer normalizer = new Normalizer();
+		for (int i = 0; i < frames; i++) {
+			System.arraycopy(data, i * frameSize, pcm, 0, frameSize);
+			AudioProcessor.convertByteToShortArray(pcm, frameSize, samples);
+			// Same energy as the energy engine of the BeatDetector
+			long energy = 0;
+			for (short sample : normalizer.normalize(samples)) {
+				energy += Math.abs(sample);
+			}
+			energies[i] = energy;
+		}
+		history = new EnergyHistory(capacity);
+		// Start with a full history, as in a running BeatDetector
+		for (int i = 0; i < capacity; i++) {
+			history.add(energies[nextFrame()]);
+		}
+	}
+
+	/**
+	 * @return index of the next frame, cycling through the audio
+	 */
+	private int nextFrame() {
+		int current = frame;
+		frame = current + 1 == energies.length ? 0 : current + 1;
+		return current;
+	}
+
+	@Benchmark
+	public long addAndDeviation() {
+		history.add(energies[nextFrame()]);
+		return history.getMean() + history.getMeanAbsoluteDeviation();
+	}
+}
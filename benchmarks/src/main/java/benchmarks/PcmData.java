@@ -0,0 +1,113 @@
+package benchmarks;
+
+import audioProcessing.AudioSource;
+import audioProcessing.ClickTrackSource;
+import audioProcessing.FileAudioSource;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * PCM audio held in memory, used as input of the audio benchmarks.
+ * Either a recorded file (WAV, AIFF) or a synthetic click track.
+ *
+ * @author Alexander Liebald
+ */
+public class PcmData {
+	private final byte[] pcm;
+	private final AudioFormat format;
+
+	private PcmData(byte[] pcm, AudioFormat format) {
+		this.pcm = pcm;
+		this.format = format;
+	}
+
+	/**
+	 * Loads the audio used by a benchmark.
+	 *
+	 * @param file path of a recorded audio file, or an empty string for a synthetic 120 BPM click track of 10 seconds
+	 * @return the audio, converted to 16 bit big endian PCM
+	 */
+	public static PcmData load(String file) throws Exception {
+		AudioSource source = file.isEmpty() ? new ClickTrackSource(120, 10, false) : new FileAudioSource(new File(file));
+		try {
+			return new PcmData(readAll(source), source.getFormat());
+		} finally {
+			source.close();
+		}
+	}
+
+	private static byte[] readAll(AudioSource source) throws IOException {
+		source.start();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while ((read = source.read(buffer, 0, buffer.length)) > 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return all samples as big endian bytes
+	 */
+	public byte[] getPcm() {
+		return pcm;
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return an AudioSource repeating the audio endlessly, as fast as it is read
+	 */
+	public AudioSource loop() {
+		return new AudioSource() {
+			private int position = 0;
+
+			public AudioFormat getFormat() {
+				return format;
+			}
+
+			public void start() {
+			}
+
+			public int read(byte[] buffer, int offset, int length) {
+				int read = 0;
+				while (read < length) {
+					int count = Math.min(length - read, pcm.length - position);
+					System.arraycopy(pcm, position, buffer, offset + read, count);
+					read += count;
+					position = (position + count) % pcm.length;
+				}
+				return read;
+			}
+
+			public void close() {
+			}
+
+			public boolean isRealTime() {
+				return false;
+			}
+		};
+	}
+}
@@ -0,0 +1,109 @@
+package bridge;
+
+import org.openjdk.jmh.annotations.*;
+// Not the Mode of the bridge
+import org.openjdk.jmh.annotations.Mode;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Benchmarks encoding a command for the bridge and recording it in the {@link WireTrace}, compared to formatting and printing it
+ * as the Bridge did before the wire trace. One operation is one command.
+ * The benchmark is in the package of the Bridge to access its package-private encoding methods.
+ *
+ * @author Alexander Liebald
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BridgeEncodingBenchmark {
+	private BridgeEmulator emulator;
+	private Bridge bridge;
+	private byte[] packet;
+	private byte value = 0;
+	private WireTrace trace;
+	private int traceAddress;
+	// Printed packets are discarded, so the output of the forked VM is not flooded
+	private final PrintStream console = new PrintStream(OutputStream.nullOutputStream());
+
+	@Setup
+	public void setUp() throws Exception {
+		emulator = new BridgeEmulator(0);
+		emulator.start();
+		bridge = new Bridge(InetAddress.getLoopbackAddress(), emulator.getPort(), false, 100);
+		packet = bridge.createData(5, Zone.ALL.gebByte(), (byte) 0x7A);
+		trace = new WireTrace(4096);
+		trace.setEnabled(true);
+		traceAddress = WireTrace.toAddress(InetAddress.getLoopbackAddress());
+	}
+
+	@TearDown
+	public void tearDown() {
+		bridge.close();
+		emulator.stop();
+	}
+
+	/**
+	 * Fills the packet of a set color command, including sequence number and checksum.
+	 */
+	@Benchmark
+	public byte[] createData() {
+		return bridge.createData(5, Zone.FIRST.gebByte(), value++);
+	}
+
+	@Benchmark
+	public byte[] createCommand() {
+		return bridge.createCommand(5, value++);
+	}
+
+	@Benchmark
+	public byte calculateChecksum() {
+		return Bridge.calculateChecksum(packet, 10, 21);
+	}
+
+	/**
+	 * Formats a packet as hex string.
+	 */
+	@Benchmark
+	public String bytesToHexString() {
+		return Bridge.bytesToHexString(packet);
+	}
+
+	/**
+	 * Formats and prints a packet, as done before every send before the wire trace replaced it.
+	 */
+	@Benchmark
+	public void logPacket() {
+		console.println("\nattempting to send: " + Bridge.bytesToHexString(packet));
+	}
+
+	/**
+	 * Records a packet in an enabled wire trace, as done for every send.
+	 */
+	@Benchmark
+	public void tracePacket() {
+		trace.record(WireTrace.SEND, traceAddress, packet, packet.length, 0);
+	}
+}
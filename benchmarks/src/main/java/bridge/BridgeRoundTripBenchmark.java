@@ -0,0 +1,70 @@
+package bridge;
+
+import org.openjdk.jmh.annotations.*;
+// Not the Mode of the bridge
+import org.openjdk.jmh.annotations.Mode;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Benchmarks the round trip of {@link Bridge#setColor(Zone, byte)} against a {@link BridgeEmulator} on the loopback interface.
+ * Sample time mode reports the latency distribution (p0.50, p0.99, ...) of single commands.
+ *
+ * An operation ends once the bridge acknowledged the command. In blocking mode ({@code maxInFlight = 0}) setColor waits for it,
+ * in pipelined mode the benchmark waits until no command is in flight anymore.
+ *
+ * @author Alexander Liebald
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BridgeRoundTripBenchmark {
+	@Param({"0", "4"})
+	public int maxInFlight;
+
+	private BridgeEmulator emulator;
+	private Bridge bridge;
+	private byte color = 0;
+
+	@Setup
+	public void setUp() throws Exception {
+		emulator = new BridgeEmulator(0);
+		emulator.start();
+		bridge = new Bridge(InetAddress.getLoopbackAddress(), emulator.getPort(), false, 100, maxInFlight);
+	}
+
+	@TearDown
+	public void tearDown() {
+		bridge.close();
+		emulator.stop();
+	}
+
+	@Benchmark
+	public void setColor() throws IOException {
+		bridge.setColor(Zone.FIRST, color++);
+		while (bridge.getInFlight() > 0) {
+			Thread.onSpinWait();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package audioProcessing;
+
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Reads frames from an {@link AudioSource} on a dedicated thread and publishes them to a {@link FrameRingBuffer}.
+ * The thread does nothing but reading, so slow beat detection or slow lights never stall the audio line.
+ *
+ * If the ring buffer is full, the frame is still read from the source, but dropped (counted by the ring buffer as overrun).
+ * The thread finishes when the source ended.
+ *
+ * @author Alexander Liebald
+ */
+public class AudioCapture implements Runnable {
+	private final AudioSource source;
+	private final FrameRingBuffer ringBuffer;
+	private final int frameSize;
+	// Frames that can not be published are read into this buffer and dropped
+	private final byte[] discard;
+
+	private volatile boolean running = false;
+	private volatile boolean finished = false;
+	private Thread thread;
+
+	/**
+	 * @param source started AudioSource
+	 * @param ringBuffer ring buffer receiving the frames, this capture is its only producer
+	 * @param frameSize number of bytes read per frame
+	 */
+	public AudioCapture(AudioSource source, FrameRingBuffer ringBuffer, int frameSize) {
+		this.source = source;
+		this.ringBuffer = ringBuffer;
+		this.frameSize = frameSize;
+		this.discard = new byte[frameSize];
+	}
+
+	/**
+	 * Starts the capture thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "AudioCapture");
+		thread.setDaemon(true);
+		// Audio should be read as soon as it is available
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the capture thread and waits for it to finish. The source is not closed, a blocked read only returns once the source is closed.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	public void run() {
+		try {
+			while (running) {
+				byte[] frame = ringBuffer.claim();
+				if (frame == null) {
+					// The consumer fell behind, keep the source flowing and drop the frame
+					if (source.read(discard, 0, frameSize) < 0) {
+						break;
+					}
+					continue;
+				}
+
+				int read = source.read(frame, 0, frameSize);
+				if (read < 0) {
+					break;
+				} else if (read > 0) {
+					ringBuffer.publish(read);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		finished = true;
+		System.out.println("AudioCapture Thread is done");
+	}
+
+	/**
+	 * @return true if the source ended or could not be read anymore
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return true if the capture thread is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
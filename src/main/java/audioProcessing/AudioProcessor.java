@@ -1,5 +1,7 @@
 package audioProcessing;
 
+import java.nio.ByteBuffer;
+
 /*
  *  Copyright 2020 Alexander Liebald
  *
@@ -41,6 +43,41 @@ public class AudioProcessor {
 		return res;
 	}
 
+	/**
+	 * Converts 16 bit big endian samples, with 2 byte per sample, from a byte array into an existing short array without allocating memory.
+	 *
+	 * @param array byte array with 16 bit values / 2 byte per value.
+	 * @param length number of bytes to convert, starting at index 0. An odd last byte is ignored.
+	 * @param target array for the converted samples. Must have at least {@code length / 2} elements.
+	 * @return number of converted samples
+	 */
+	public static int convertByteToShortArray(byte[] array, int length, short[] target) {
+		int samples = length / 2;
+		for (int i = 0; i < samples; i++) {
+			target[i] = (short) ((array[2 * i] << 8) | (array[2 * i + 1] & 0xFF));
+		}
+		return samples;
+	}
+
+	/**
+	 * Converts 16 bit big endian samples from the remaining bytes of a ByteBuffer into an existing short array without allocating memory.
+	 * The position of {@code buffer} is advanced by the number of converted bytes.
+	 *
+	 * @param buffer buffer with 16 bit values / 2 byte per value, e.g. wrapping the array a TargetDataLine reads into.
+	 * @param target array for the converted samples. At most {@code target.length} samples are converted.
+	 * @return number of converted samples
+	 */
+	public static int convertByteToShortArray(ByteBuffer buffer, short[] target) {
+		int samples = Math.min(buffer.remaining() / 2, target.length);
+		int position = buffer.position();
+		for (int i = 0; i < samples; i++) {
+			// Combine single bytes, so the samples are read as big endian independent of the order of the buffer
+			target[i] = (short) ((buffer.get(position + 2 * i) << 8) | (buffer.get(position + 2 * i + 1) & 0xFF));
+		}
+		buffer.position(position + 2 * samples);
+		return samples;
+	}
+
 	/**
 	 * Pretty prints a byte buffer. Used for debug output.
 	 */
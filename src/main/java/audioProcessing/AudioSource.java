@@ -0,0 +1,69 @@
+package audioProcessing;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Source of audio for the {@link BeatDetector}.
+ * A source delivers signed 16 bit big endian PCM with one or two channels, the sample rate and number of channels are given by {@link #getFormat()}.
+ *
+ * @see LineAudioSource
+ * @see FileAudioSource
+ * @see ClickTrackSource
+ * @author Alexander Liebald
+ */
+public interface AudioSource {
+	/**
+	 * @return format of the audio delivered by {@link #read(byte[], int, int)}
+	 */
+	AudioFormat getFormat();
+
+	/**
+	 * Starts delivering audio. Live sources only buffer audio after they were started.
+	 */
+	void start();
+
+	/**
+	 * Reads audio, blocking until {@code length} bytes are available or the source ended.
+	 *
+	 * @param buffer buffer receiving the audio
+	 * @param offset first byte written in {@code buffer}
+	 * @param length number of bytes to read, should be a multiple of the frame size of the format
+	 * @return number of bytes read, or -1 if the source ended
+	 * @throws IOException if the audio could not be read
+	 */
+	int read(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Stops the source and releases its resources. Blocked reads return.
+	 */
+	void close();
+
+	/**
+	 * @return true if the source delivers audio at the speed it is played, false if it can be read as fast as possible
+	 */
+	boolean isRealTime();
+
+	/**
+	 * @return number of times the source lost audio because it was not read in time, 0 for sources that can not lose audio
+	 */
+	default long getOverruns() {
+		return 0;
+	}
+}
@@ -1,7 +1,9 @@
 package audioProcessing;
 
 import javax.sound.sampled.*;
+import java.io.IOException;
 import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
 
 /*
  *  Copyright 2020 Alexander Liebald
@@ -21,34 +23,114 @@ import java.util.LinkedList;
 
 /**
  * BeatDetector can be used to detect beats in the chosen audio output/input.
+ * The audio is read from an {@link AudioSource}. Live sources are read on a separate capture thread,
+ * sources which are not real time, e.g. files, are read directly by {@link #detect()} and analyzed as fast as possible.
  *
  * @author Alexander Liebald
  */
 // @SuppressWarnings({"FieldCanBeLocal"}) // TODO remove this and look over the variables when finished
 public class BeatDetector {
-	private static final float sampleRate = 44100;
-	private static final int sampleSizeInBits = 16;
-	private static int channels = 1;
-	private static AudioFormat audioFormat = new AudioFormat(sampleRate, sampleSizeInBits, channels, true, true);
+	// Number of samples per channel in a frame
+	private static final int frameLength = 512;
 
-	private final LinkedList <Long> historyBuffer = new LinkedList<>();
+	private final AudioSource source;
+	private final float sampleRate;
+	private final int channels;
+
+	private final EnergyHistory historyBuffer;
 	private final Normalizer normalizer = new Normalizer();
-	private TargetDataLine line;
+
+	// Real time sources are read on a separate thread, the frames are passed to detect() through the ring buffer
+	private static final int ringBufferFrames = 32;
+	private static final long frameTimeout = 100;
+	private final FrameRingBuffer ringBuffer;
+	private final AudioCapture capture;
+	// Sources which are not real time are read directly into this buffer
+	private final byte[] buffer;
+	private volatile boolean finished = false;
+
+	// Sources which are not real time are analyzed faster than they are played, their time is the position in the audio
+	private final long frameNanos;
+	private long frames = 0;
+	// Capture time of the current frame of a real time source, see System.nanoTime()
+	private long frameTime;
 
 	// The cooldown regulates how often a beat can be detected. A beat can occur at most every cooldown milliseconds
 	private long cooldown;
 	private long lastBeat;
 
+	// Tempo estimation. If cooldownFromTempo is enabled and the tempo is reliable, the cooldown is a fraction of the beat period instead.
+	private TempoTracker tempoTracker;
+	private volatile boolean cooldownFromTempo = false;
+	private static final double tempoCooldownFactor = 0.5d;
+	private static final double minTempoConfidence = 0.3d;
+	private long lastEnergy = 0;
+
+	// Predicts beats ahead of time to compensate the latency of the whole chain, if enabled
+	private BeatPredictor beatPredictor;
+	private volatile boolean predictBeats = false;
+
 	// minBeatLength defines how many samples need to be above the threshold before a beat is detected. Do not set lower than 1.
 	private final int minBeatLength = 1;
 	private int beatsBefore = 0;
 
-	// variables that change the bpm calculation
-	private long historyBufferSize = 43 * 2;
-	private int bufferSize = 1024;
-	private byte[] buffer;
+	// variables that change the bpm calculation, both are doubled for stereo
+	private final int historyBufferSize;
+	private final int bufferSize;
+	// Samples of the current frame, converted from the frame in the ring buffer
+	private short[] samples;
 	private double sensitivity;
 
+	// Algorithm used to detect beats, the analyzers of the spectral and onset engine are created when the engine is selected
+	private volatile DetectionEngine engine = DetectionEngine.ENERGY;
+	private SubBandAnalyzer subBandAnalyzer;
+	private OnsetDetector onsetDetector;
+
+	// Detection function and threshold of the last frame, see getValue()
+	private volatile double value = 0;
+	private volatile double threshold = 0;
+
+	/**
+	 * @param cooldown minimum time in milliseconds between beats.
+	 *                 A high value can lead to skipped beats while a low value may lead to the same beat being detected twice.
+	 *                 Setting this to a higher value reduces load on the network, Bridge and controllers. A good starting point
+	 *                 could be between 80-200, but values outside of this range can make sense too.
+	 *
+	 * @param source source of the audio, mono or stereo 16bit PCM. The BeatDetector starts and closes the source.
+	 *
+	 * @param sensitivity sensitivity for beat detection. A low value will lead to a lower threshold.
+	 */
+	public BeatDetector(int cooldown, AudioSource source, double sensitivity) {
+		this.sensitivity = sensitivity;
+		this.cooldown = cooldown;
+		this.source = source;
+		AudioFormat format = source.getFormat();
+		sampleRate = format.getSampleRate();
+		channels = format.getChannels();
+		historyBufferSize = 43 * 2 * channels;
+		bufferSize = frameLength * 2 * channels;
+		frameNanos = (long) (frameLength / (double) sampleRate * 1e9);
+
+		historyBuffer = new EnergyHistory(historyBufferSize);
+		tempoTracker = new TempoTracker(sampleRate / frameLength);
+		beatPredictor = new BeatPredictor(frameLength / (double) sampleRate * 1000);
+		samples = new short[bufferSize / 2];
+		frameTime = System.nanoTime();
+		lastBeat = now() / 1000000;
+
+		source.start();
+		if (source.isRealTime()) {
+			buffer = null;
+			ringBuffer = new FrameRingBuffer(ringBufferFrames, bufferSize);
+			capture = new AudioCapture(source, ringBuffer, bufferSize);
+			capture.start();
+		} else {
+			buffer = new byte[bufferSize];
+			ringBuffer = null;
+			capture = null;
+		}
+	}
+
 	/**
 	 * @param targetDataLine The name of the TargetDataLine that should be opened. Get all possible TargetDataLines using {@link #getPossibleTargetDataLines()}
 	 *
@@ -63,33 +145,7 @@ public class BeatDetector {
 	 *
 	 */
 	public BeatDetector(int cooldown, String targetDataLine, double sensitivity) throws LineUnavailableException {
-		this.sensitivity = sensitivity;
-		lastBeat = System.currentTimeMillis();
-		this.cooldown = cooldown;
-		if (targetDataLine != null) {
-			line = getTargetDataLine(targetDataLine);
-		} else {
-			line = getStdTargetDataLine();
-		}
-
-		// Open and start the TargetDataLine
-		try {
-			// Try opening line in mono
-			line.open(audioFormat);
-		} catch (LineUnavailableException ignored) {
-			// Try opening line in stereo format
-			System.out.println("Failed to open line in mono channel, trying stereo");
-			channels = 2;
-			audioFormat = new AudioFormat(sampleRate, sampleSizeInBits, channels, true, true);
-			historyBufferSize *= 2;
-			bufferSize *= 2;
-
-			// Try again, throws an exception if this fails too.
-			line.open(audioFormat);
-		}
-
-		buffer = new byte[bufferSize];
-		line.start();
+		this(cooldown, new LineAudioSource(targetDataLine), sensitivity);
 	}
 
 	/**
@@ -103,7 +159,7 @@ public class BeatDetector {
 	 * @param sensitivity sensitivity for beat detection. A low value will lead to a lower threshold.
 	 */
 	public BeatDetector(int cooldown, double sensitivity) throws LineUnavailableException {
-		this(cooldown, null, sensitivity);
+		this(cooldown, new LineAudioSource(), sensitivity);
 	}
 
 	/**
@@ -115,22 +171,306 @@ public class BeatDetector {
 	 *                 could be between 80-200, but values outside of this range can make sense too.
 	 */
 	public BeatDetector(int cooldown) throws LineUnavailableException {
-		this(cooldown, null, 1.0d);
+		this(cooldown, new LineAudioSource(), 1.0d);
 	}
 
 	/**
 	 * Get and examine a audio sample.
 	 * Should be called in a loop, otherwise the detection will not work correctly.
+	 * For real time sources this waits for the next frame of the capture thread. If no frame arrives in time, e.g. because the line was closed, false is returned.
+	 * Use {@link #isFinished()} to check if the source ended.
 	 *
 	 * @return true if the current sample is a beat, false if not.
 	 */
 	public boolean detect() {
-		if (line.read(buffer, 0, bufferSize) > 0){
-			return process(normalizer.normalize(AudioProcessor.convertByteToShortArray(buffer)));
+		int length = readFrame();
+		if (length > 0) {
+			frames++;
+			value = 0;
+			threshold = 0;
+			short[] normalized = normalizer.normalize(samples);
+			boolean beat;
+			switch (engine) {
+				case SPECTRAL:
+					beat = processSpectral(normalized, length);
+					break;
+				case ONSET:
+					beat = processOnset(normalized, length);
+					break;
+				default:
+					beat = process(normalized);
+			}
+			updateTempo(normalized, length);
+
+			boolean predicted = beatPredictor.update(now(), beat, tempoTracker.getBpm(), tempoTracker.getConfidence() >= minTempoConfidence);
+			if (predictBeats && beatPredictor.isLocked()) {
+				// The predicted beats replace the detected ones while the prediction matches the music
+				return predicted;
+			}
+			return beat;
 		}
 		return false;
 	}
 
+	/**
+	 * Reads the next frame and decodes it into {@link #samples}, so no memory is allocated per frame.
+	 *
+	 * @return number of samples in the frame, 0 if no frame was available
+	 */
+	private int readFrame() {
+		if (ringBuffer != null) {
+			byte[] frame = ringBuffer.poll(frameTimeout, TimeUnit.MILLISECONDS);
+			if (frame == null) {
+				finished = capture.isFinished() && ringBuffer.size() == 0;
+				return 0;
+			}
+			// The frame is returned to the capture thread once it was decoded
+			int length = AudioProcessor.convertByteToShortArray(frame, ringBuffer.getLength(), samples);
+			frameTime = ringBuffer.getTimestamp();
+			ringBuffer.release();
+			return length;
+		}
+
+		int read;
+		try {
+			read = source.read(buffer, 0, bufferSize);
+		} catch (IOException e) {
+			e.printStackTrace();
+			read = -1;
+		}
+		if (read < 0) {
+			finished = true;
+			return 0;
+		}
+		return AudioProcessor.convertByteToShortArray(buffer, read, samples);
+	}
+
+	/**
+	 * Current time in nanoseconds. For real time sources this is the time the current frame was captured at, otherwise the position in the audio,
+	 * so the cooldown and the beat prediction work when frames are analyzed in a burst or faster than they are played.
+	 */
+	private long now() {
+		if (source.isRealTime()) {
+			return frameTime;
+		}
+		return frames * frameNanos;
+	}
+
+	/**
+	 * Stops the capture thread and closes the source. The BeatDetector can not be used afterwards.
+	 */
+	public void close() {
+		// Closing the source returns a blocked read, so the capture thread can finish
+		source.close();
+		if (capture != null) {
+			capture.stop();
+		}
+	}
+
+	/**
+	 * @return true if the source ended and all of its frames were analyzed
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the detection function of the last frame, which is compared to {@link #getThreshold()}.
+	 * This is the energy of the frame for the energy engine, the energy of the bass band closest to its threshold for the spectral engine
+	 * and the spectral flux for the onset engine. Silent frames have a value and threshold of 0.
+	 *
+	 * @return detection function of the last frame
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * @return threshold of the last frame, see {@link #getValue()}
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @return source of the analyzed audio
+	 */
+	public AudioSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns how long ago the current frame was captured, i.e. how far the analysis lags behind a real time source.
+	 * Must be called by the thread calling {@link #detect()}.
+	 *
+	 * @return age of the current frame in nanoseconds, 0 for sources which are not real time
+	 */
+	public long getFrameAge() {
+		return source.isRealTime() ? System.nanoTime() - frameTime : 0;
+	}
+
+	/**
+	 * @return number of frames analyzed so far
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return length of a frame in milliseconds
+	 */
+	public double getFrameMillis() {
+		return frameNanos / 1e6;
+	}
+
+	/**
+	 * @return number of frames dropped because detection fell behind the capture thread
+	 */
+	public long getOverruns() {
+		return ringBuffer != null ? ringBuffer.getOverruns() : 0;
+	}
+
+	/**
+	 * @return number of times detection waited in vain for a frame of the capture thread
+	 */
+	public long getUnderruns() {
+		return ringBuffer != null ? ringBuffer.getUnderruns() : 0;
+	}
+
+	/**
+	 * @return number of times audio was lost because the line was not read in time
+	 */
+	public long getLineOverruns() {
+		return source.getOverruns();
+	}
+
+	/**
+	 * @return number of frames captured but not yet analyzed
+	 */
+	public int getBufferedFrames() {
+		return ringBuffer != null ? ringBuffer.size() : 0;
+	}
+
+	/**
+	 * Adds the onset envelope of the current frame to the tempo estimation.
+	 * The envelope is the spectral flux for the onset engine and the increase of the energy otherwise.
+	 *
+	 * @param normalized normalized audio sample
+	 * @param length number of samples in the frame
+	 */
+	private void updateTempo(short[] normalized, int length) {
+		double value;
+		if (normalized.length < length) {
+			// silent
+			value = 0;
+			lastEnergy = 0;
+		} else if (engine == DetectionEngine.ONSET) {
+			value = onsetDetector.getFlux();
+		} else {
+			long energy = absSum(normalized);
+			value = Math.max(0, energy - lastEnergy);
+			lastEnergy = energy;
+		}
+		tempoTracker.update(value);
+	}
+
+	/**
+	 * @return estimated tempo in beats per minute, 0 if the tempo is not known yet
+	 */
+	public double getBpm() {
+		return tempoTracker.getBpm();
+	}
+
+	/**
+	 * @return confidence of the estimated tempo between 0 and 1
+	 */
+	public double getTempoConfidence() {
+		return tempoTracker.getConfidence();
+	}
+
+	/**
+	 * @return the tempo estimation of this BeatDetector
+	 */
+	public TempoTracker getTempoTracker() {
+		return tempoTracker;
+	}
+
+	/**
+	 * @return true if the cooldown is derived from the tempo
+	 */
+	public boolean isCooldownFromTempo() {
+		return cooldownFromTempo;
+	}
+
+	/**
+	 * If enabled, the cooldown is half a beat period while the tempo estimation is reliable, instead of the fixed cooldown.
+	 *
+	 * @param cooldownFromTempo true to derive the cooldown from the tempo
+	 */
+	public void setCooldownFromTempo(boolean cooldownFromTempo) {
+		System.out.println("SET COOLDOWN FROM TEMPO TO " + cooldownFromTempo);
+		this.cooldownFromTempo = cooldownFromTempo;
+	}
+
+	/**
+	 * @return true if predicted beats are used while the prediction is locked to the music
+	 */
+	public boolean isPredictBeats() {
+		return predictBeats;
+	}
+
+	/**
+	 * If enabled, {@link #detect()} returns beats predicted from the tempo and fired early by the latency of the lights,
+	 * as long as the prediction matches the detected beats. Otherwise the detected beats are returned.
+	 *
+	 * @param predictBeats true to use predicted beats
+	 */
+	public void setPredictBeats(boolean predictBeats) {
+		System.out.println("SET PREDICT BEATS TO " + predictBeats);
+		this.predictBeats = predictBeats;
+	}
+
+	/**
+	 * @return the beat prediction of this BeatDetector, e.g. to set the latency of the lights
+	 */
+	public BeatPredictor getBeatPredictor() {
+		return beatPredictor;
+	}
+
+	/**
+	 * @return cooldown in milliseconds currently used, either the fixed cooldown or the one derived from the tempo
+	 */
+	public long getEffectiveCooldown() {
+		if (cooldownFromTempo && tempoTracker.getConfidence() >= minTempoConfidence && tempoTracker.getBpm() > 0) {
+			return (long) (tempoTracker.getBeatPeriod() * tempoCooldownFactor);
+		}
+		return cooldown;
+	}
+
+	/**
+	 * @return algorithm used to detect beats
+	 */
+	public DetectionEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Selects the algorithm used to detect beats. The history of the spectral engine is kept when switching engines.
+	 *
+	 * @param engine new algorithm
+	 */
+	public synchronized void setEngine(DetectionEngine engine) {
+		System.out.println("SET DETECTION ENGINE TO " + engine);
+		if (engine == DetectionEngine.SPECTRAL && subBandAnalyzer == null) {
+			subBandAnalyzer = new SubBandAnalyzer(1024, sampleRate, 16, 43 * 2);
+		}
+		if (engine == DetectionEngine.ONSET && onsetDetector == null) {
+			// One transform per frame without overlap, so an attack is fully visible in the first frame containing it
+			onsetDetector = new OnsetDetector(Integer.highestOneBit(frameLength), sampleRate, 24, 43);
+		}
+		this.engine = engine;
+	}
+
 	/**
 	 * The cooldown regulates how often a beat can be detected. A beat can occur at most every <code>cooldown</code> milliseconds.
 	 *
@@ -166,34 +506,24 @@ public class BeatDetector {
 		// compute energy and localAverageEnergy
 		energy = absSum(normalized);
 		if (historyBuffer.size() > 0) {
-			localAverageEnergy = absSum(historyBuffer) / historyBuffer.size();
+			localAverageEnergy = historyBuffer.getMean();
 		} else {
 			localAverageEnergy = energy;
 		}
 
 		// TODO adjust the values for the variance
 		// compute the variance. NOTE: if the normalizer is changed the values for c may need to change.
-		int trueVariance = calculateVariance(localAverageEnergy);
+		int trueVariance = historyBuffer.size() > 1 ? (int) historyBuffer.getMeanAbsoluteDeviation() : 0;
 		double factor = ((1.0 / 1800000.0) * trueVariance) + 1.1;
 
-		// insert the energy into the historyBuffer
+		// insert the energy into the historyBuffer, the oldest energy is removed once the buffer is full
 		historyBuffer.add(energy);
-		if (historyBuffer.size() > historyBufferSize) {
-			historyBuffer.pop();
-		}
 
 		threshold = (long) (factor * localAverageEnergy * sensitivity);
+		this.value = energy;
+		this.threshold = threshold;
 
-		// if energy is higher than the threshold and the last beat was at least <code>cooldown</code> milliseconds ago, we have a beat
-		if (energy > threshold && lastBeat + cooldown < System.currentTimeMillis()) {
-			if (beatsBefore >= minBeatLength) {
-				beat = true;
-				beatsBefore = 0;
-				lastBeat = System.currentTimeMillis();
-			} else {
-				beatsBefore++;
-			}
-		}
+		beat = checkBeat(energy > threshold);
 
 		// Debug output. Use this in combination with the Display class
 		/*
@@ -208,6 +538,75 @@ public class BeatDetector {
 		return beat;
 	}
 
+	/**
+	 * processes a normalized audio sample using the spectral engine.
+	 *
+	 * @see SubBandAnalyzer
+	 * @param normalized normalized audio sample
+	 * @param length number of samples in the frame
+	 * @return true if a beat was detected, false otherwise
+	 */
+	private boolean processSpectral(short[] normalized, int length) {
+		if (normalized.length < length) {
+			// The Normalizer replaced a silent frame with a static signal
+			return false;
+		}
+		boolean aboveThreshold = subBandAnalyzer.analyze(normalized, length, channels, sensitivity);
+
+		// Report the bass band closest to (or furthest above) its threshold
+		double bestRatio = -1;
+		for (int band = 0; band < subBandAnalyzer.getBeatBands(); band++) {
+			double bandThreshold = subBandAnalyzer.getThreshold(band);
+			double ratio = bandThreshold > 0 ? subBandAnalyzer.getEnergy(band) / bandThreshold : 0;
+			if (ratio > bestRatio) {
+				bestRatio = ratio;
+				value = subBandAnalyzer.getEnergy(band);
+				threshold = bandThreshold;
+			}
+		}
+		return checkBeat(aboveThreshold);
+	}
+
+	/**
+	 * processes a normalized audio sample using the onset engine.
+	 *
+	 * @see OnsetDetector
+	 * @param normalized normalized audio sample
+	 * @param length number of samples in the frame
+	 * @return true if a beat was detected, false otherwise
+	 */
+	private boolean processOnset(short[] normalized, int length) {
+		if (normalized.length < length) {
+			// The Normalizer replaced a silent frame with a static signal
+			return false;
+		}
+		boolean aboveThreshold = onsetDetector.analyze(normalized, length, channels, sensitivity);
+		value = onsetDetector.getFlux();
+		threshold = onsetDetector.getThreshold();
+		return checkBeat(aboveThreshold);
+	}
+
+	/**
+	 * Applies the cooldown and the minimum beat length.
+	 *
+	 * @param aboveThreshold true if the current frame is above the threshold of the engine
+	 * @return true if a beat was detected, false otherwise
+	 */
+	private boolean checkBeat(boolean aboveThreshold) {
+		// if the frame is above the threshold and the last beat was at least <code>cooldown</code> milliseconds ago, we have a beat
+		long nowMillis = now() / 1000000;
+		if (aboveThreshold && lastBeat + getEffectiveCooldown() < nowMillis) {
+			if (beatsBefore >= minBeatLength) {
+				beatsBefore = 0;
+				lastBeat = nowMillis;
+				return true;
+			} else {
+				beatsBefore++;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * @return current sensitivity
 	 */
@@ -251,37 +650,6 @@ public class BeatDetector {
 		return min;
 	}
 
-	/**
-	 * Computes the variance of the historyBuffer using the localAverageEnergy.
-	 *
-	 * @param localAverageEnergy current localAverageEnergy.
-	 * @return variance of historyBuffer.
-	 */
-	private int calculateVariance(long localAverageEnergy) {
-		int variance = 0;
-		if (historyBuffer.size() > 1) {
-			for (long e : historyBuffer) {
-				variance += Math.abs((e - localAverageEnergy));
-			}
-			variance /= historyBuffer.size();
-		}
-		return variance;
-	}
-
-	/**
-	 * Computes the sum of the absolute values in a LinkedList.
-	 *
-	 * @param list list with values.
-	 * @return sum of the absolute values.
-	 */
-	private long absSum(LinkedList <Long> list){
-		long sum = 0;
-		for (Long i : list){
-			sum += Math.abs(i);
-		}
-		return sum;
-	}
-
 	/**
 	 * Computes the sum of the absolute values in a byte array.
 	 *
@@ -310,68 +678,14 @@ public class BeatDetector {
 		return sum;
 	}
 
-	/**
-	 * Returns the standard TargetDataLine.
-	 *
-	 * @return standard TargetDataLine to listen to.
-	 */
-	private static TargetDataLine getStdTargetDataLine() {
-		return getTargetDataLine(getPossibleTargetDataLines().getFirst());
-	}
-
-	/**
-	 * Get the TargetDataLine with the given name.
-	 *
-	 * @param name name of a TargetDataLine
-	 * @return TargetDataLine with the given {@code name}
-	 */
-	private static TargetDataLine getTargetDataLine(String name) {
-		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-
-		Mixer mixer = null;
-		for (Mixer.Info m : mixers) {
-			if (m.getName().equals(name)){
-				mixer = AudioSystem.getMixer(m);
-				System.out.println(" Set mixer to " + mixer.getMixerInfo().getName());
-				break;
-			}
-		}
-		if (mixer == null) {
-			// TODO error handling
-			System.out.println("Failed to get mixer: " + name);
-			return getStdTargetDataLine();
-		}
-
-		Line.Info targetLineInfo = mixer.getTargetLineInfo()[0];
-		TargetDataLine targetDataLine = null;
-		try {
-			targetDataLine = (TargetDataLine) mixer.getLine(targetLineInfo);
-		} catch (LineUnavailableException e) {
-			// TODO
-			e.printStackTrace();
-		}
-
-		System.out.println("TargetDataLine: " + targetDataLine.getLineInfo() + "\n#######\n");
-		return targetDataLine;
-	}
-
 	/**
 	 * Gets a List with all compatible TargetDataLines
 	 *
 	 * @return all TargetDataLines that can be used
+	 * @see LineAudioSource#getPossibleTargetDataLines()
 	 */
 	public static LinkedList<String> getPossibleTargetDataLines() {
-		LinkedList<String> lines = new LinkedList<>();
-		DataLine.Info info = new DataLine.Info(TargetDataLine.class, audioFormat);
-		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-
-		for (Mixer.Info m : mixers) {
-			Mixer mixer = AudioSystem.getMixer(m);
-			if (canCreateTargetDataLine(mixer, info)) {
-				lines.add(mixer.getMixerInfo().getName());
-			}
-		}
-		return lines;
+		return LineAudioSource.getPossibleTargetDataLines();
 	}
 
 	/**
@@ -379,24 +693,9 @@ public class BeatDetector {
 	 *
 	 * @param line name of a TargetDataLine.
 	 * @return true if {@code line} is a valid TargetDataLine.
+	 * @see LineAudioSource#isValidTargetDataLine(String)
 	 */
 	public static boolean isValidTargetDataLine(String line) {
-		for (String validLine : BeatDetector.getPossibleTargetDataLines()) {
-			if (line.equals(validLine)) {
-				return true;
-			}
-		}
-		return false;
+		return LineAudioSource.isValidTargetDataLine(line);
 	}
-
-	private static boolean canCreateTargetDataLine(Mixer mixer, DataLine.Info info) {
-		try {
-			TargetDataLine targetDataLine = (TargetDataLine) mixer.getLine(info);
-		} catch (Exception ignored) {
-			return false;
-		}
-		return true;
-	}
-
-
 }
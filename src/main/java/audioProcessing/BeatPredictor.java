@@ -0,0 +1,196 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Phase locked beat predictor. Predicts the time of the next beat from the tempo and the detected beats,
+ * and fires it {@code latency} milliseconds early, so the lights change on the beat instead of after it.
+ *
+ * The predicted beat grid runs with the beat period of the tempo estimation. Every detected beat close to the grid
+ * pulls the grid towards itself (phase correction). After a few detected beats in a row matched the grid the predictor is locked
+ * and its beats should be used instead of the detected ones. Detected beats far away from the grid unlock it again.
+ *
+ * The latency consists of a configured offset, the length of one audio frame (a beat is detected after its frame was read)
+ * and the measured time from capturing the beat until the bridge acknowledged a command, including the time the frame waited for the analysis
+ * and the command waited in the command queue.
+ * The delay of the bulbs after the bridge can not be measured and is part of the configured offset.
+ *
+ * @author Alexander Liebald
+ */
+public class BeatPredictor {
+	// Fraction of the phase error corrected with every detected beat
+	private static final double phaseGain = 0.3d;
+	// Detected beats within matchWindow beat periods of the grid match the prediction
+	private static final double matchWindow = 0.15d;
+	private static final int beatsToLock = 4;
+	private static final int missesToUnlock = 3;
+
+	private final long frameNanos;
+	private volatile long latencyOffsetNanos = 0;
+	private volatile long measuredLatencyNanos = 0;
+
+	private double period = 0;
+	private double nextBeat = 0;
+	private boolean fired = false;
+	private int matches = 0;
+	private int misses = 0;
+	private volatile boolean locked = false;
+
+	private volatile long predicted = 0;
+	private volatile double lastPhaseError = 0;
+
+	/**
+	 * @param frameMillis length of one audio frame in milliseconds
+	 */
+	public BeatPredictor(double frameMillis) {
+		this.frameNanos = (long) (frameMillis * 1e6);
+	}
+
+	/**
+	 * Updates the prediction. Should be called once per audio frame.
+	 *
+	 * @param now current time in nanoseconds, see {@link System#nanoTime()}
+	 * @param detected true if a beat was detected in the current frame
+	 * @param bpm current tempo, 0 if unknown
+	 * @param reliable true if the tempo is reliable enough to predict beats
+	 * @return true if a predicted beat should be fired now
+	 */
+	public boolean update(long now, boolean detected, double bpm, boolean reliable) {
+		if (!reliable || bpm <= 0) {
+			unlock();
+			return false;
+		}
+		period = 60e9 / bpm;
+
+		if (detected) {
+			// The beat happened while the frame was recorded, about one frame before it was detected
+			onBeat(now - frameNanos);
+		}
+		if (nextBeat == 0) {
+			return false;
+		}
+
+		// Move the grid forward, keeping beats that may still be detected late
+		while (now > nextBeat + period / 2) {
+			nextBeat += period;
+			fired = false;
+		}
+
+		if (locked && !fired && now + getLatency() >= nextBeat) {
+			fired = true;
+			predicted++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Aligns the grid with a detected beat.
+	 *
+	 * @param beat time of the detected beat in nanoseconds
+	 */
+	private void onBeat(long beat) {
+		if (nextBeat == 0) {
+			nextBeat = beat + period;
+			return;
+		}
+
+		// Phase error to the nearest beat of the grid, between -period / 2 and period / 2
+		double error = (beat - nextBeat) % period;
+		if (error > period / 2) {
+			error -= period;
+		} else if (error < -period / 2) {
+			error += period;
+		}
+		lastPhaseError = error;
+
+		if (Math.abs(error) <= matchWindow * period) {
+			nextBeat += phaseGain * error;
+			misses = 0;
+			if (++matches >= beatsToLock) {
+				locked = true;
+			}
+		} else {
+			matches = 0;
+			if (++misses >= missesToUnlock) {
+				// The music changed, restart the grid at this beat
+				unlock();
+				nextBeat = beat + period;
+			}
+		}
+	}
+
+	private void unlock() {
+		locked = false;
+		matches = 0;
+		misses = 0;
+	}
+
+	/**
+	 * @param latencyMillis additional time in milliseconds by which beats are fired early, e.g. the delay of the bridge and the bulbs
+	 */
+	public void setLatencyOffset(long latencyMillis) {
+		this.latencyOffsetNanos = latencyMillis * 1000000;
+	}
+
+	/**
+	 * @return configured additional latency in milliseconds
+	 */
+	public long getLatencyOffset() {
+		return latencyOffsetNanos / 1000000;
+	}
+
+	/**
+	 * Adds a measurement of the time from capturing a beat until the bridge acknowledged a command,
+	 * see {@link BeatDetector#getFrameAge()} and {@link bridge.LightController#getDeliveryLatency()}.
+	 * The measurements are smoothed.
+	 *
+	 * @param nanos delivery latency in nanoseconds
+	 */
+	public void addLatencySample(long nanos) {
+		long current = measuredLatencyNanos;
+		measuredLatencyNanos = current == 0 ? nanos : (7 * current + nanos) / 8;
+	}
+
+	/**
+	 * @return total time in nanoseconds by which beats are fired early
+	 */
+	public long getLatency() {
+		return latencyOffsetNanos + frameNanos + measuredLatencyNanos;
+	}
+
+	/**
+	 * @return true if the grid matched the detected beats and predicted beats should be used
+	 */
+	public boolean isLocked() {
+		return locked;
+	}
+
+	/**
+	 * @return number of predicted beats fired
+	 */
+	public long getPredicted() {
+		return predicted;
+	}
+
+	/**
+	 * @return phase error of the last detected beat in milliseconds, positive if the beat came after the prediction
+	 */
+	public double getLastPhaseError() {
+		return lastPhaseError / 1e6;
+	}
+}
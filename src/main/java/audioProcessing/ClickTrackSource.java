@@ -0,0 +1,137 @@
+package audioProcessing;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * AudioSource generating a click track: a short, decaying bass tone on every beat over quiet noise.
+ * The first click starts at the first sample, click {@code n} starts at {@code n * 60 / bpm} seconds.
+ * Useful to test the beat detection without sound hardware, the generated audio is the same for every instance with the same parameters.
+ *
+ * @author Alexander Liebald
+ */
+public class ClickTrackSource implements AudioSource {
+	private static final float sampleRate = 44100;
+	private static final double clickFrequency = 60.0d;
+	private static final double clickLength = 0.08d;
+	// Time in seconds after which the click decayed to 1/e
+	private static final double clickDecay = 0.02d;
+	private static final double clickAmplitude = 20000.0d;
+	private static final double noiseAmplitude = 300.0d;
+
+	private final AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, true);
+	private final double bpm;
+	private final double samplesPerBeat;
+	private final long totalSamples;
+	private final boolean realTime;
+	private final Random noise = new Random(0);
+
+	private long sample = 0;
+	private long started = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param bpm tempo of the clicks in beats per minute
+	 * @param seconds length of the track in seconds, 0 for an endless track
+	 * @param realTime true to deliver the audio at the speed it is played, false to generate it as fast as possible
+	 */
+	public ClickTrackSource(double bpm, double seconds, boolean realTime) {
+		this.bpm = bpm;
+		this.samplesPerBeat = 60.0d * sampleRate / bpm;
+		this.totalSamples = seconds > 0 ? (long) (seconds * sampleRate) : Long.MAX_VALUE;
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Creates an endless click track delivered at the speed it is played.
+	 *
+	 * @param bpm tempo of the clicks in beats per minute
+	 */
+	public ClickTrackSource(double bpm) {
+		this(bpm, 0, true);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public void start() {
+		started = System.nanoTime();
+	}
+
+	public int read(byte[] buffer, int offset, int length) {
+		if (closed || sample >= totalSamples) {
+			return -1;
+		}
+		if (realTime) {
+			waitUntilPlayed();
+		}
+
+		int samples = (int) Math.min(length / 2, totalSamples - sample);
+		for (int i = 0; i < samples; i++) {
+			short value = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, next()));
+			buffer[offset + 2 * i] = (byte) (value >> 8);
+			buffer[offset + 2 * i + 1] = (byte) value;
+		}
+		return samples * 2;
+	}
+
+	/**
+	 * @return value of the next sample
+	 */
+	private double next() {
+		double inBeat = (sample - Math.floor(sample / samplesPerBeat) * samplesPerBeat) / sampleRate;
+		sample++;
+		double value = noiseAmplitude * noise.nextGaussian();
+		if (inBeat < clickLength) {
+			value += clickAmplitude * Math.exp(-inBeat / clickDecay) * Math.sin(2 * Math.PI * clickFrequency * inBeat);
+		}
+		return value;
+	}
+
+	/**
+	 * Waits until the samples generated so far were played.
+	 */
+	private void waitUntilPlayed() {
+		long remaining = started + (long) (sample / (double) sampleRate * 1e9) - System.nanoTime();
+		if (remaining > 0) {
+			try {
+				Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				closed = true;
+			}
+		}
+	}
+
+	public void close() {
+		closed = true;
+	}
+
+	public boolean isRealTime() {
+		return realTime;
+	}
+
+	/**
+	 * @return tempo of the clicks in beats per minute
+	 */
+	public double getBpm() {
+		return bpm;
+	}
+}
@@ -0,0 +1,52 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Algorithms the {@link BeatDetector} can use to detect beats.
+ *
+ * @author Alexander Liebald
+ */
+public enum DetectionEngine {
+	/**
+	 * Compares the broadband energy of each frame to the energy of the last frames.
+	 */
+	ENERGY,
+	/**
+	 * Compares the energy of logarithmic frequency sub-bands to their history, only bass bands trigger beats. See {@link SubBandAnalyzer}.
+	 */
+	SPECTRAL,
+	/**
+	 * Detects onsets using the spectral flux between consecutive frames and an adaptive median/mean threshold. See {@link OnsetDetector}.
+	 */
+	ONSET;
+
+	/**
+	 * Parses the name of an engine, ignoring case.
+	 *
+	 * @param name name of an engine
+	 * @return the engine or {@link #ENERGY} if {@code name} is unknown
+	 */
+	public static DetectionEngine fromString(String name) {
+		for (DetectionEngine engine : values()) {
+			if (engine.name().equalsIgnoreCase(name)) {
+				return engine;
+			}
+		}
+		return ENERGY;
+	}
+}
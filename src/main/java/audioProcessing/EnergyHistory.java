@@ -0,0 +1,174 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Ring buffer for the energy of the last frames, backed by a primitive long array.
+ * The sum and the mean absolute deviation are updated with every added value, so all statistics are available in constant time
+ * and adding a value takes amortized constant time, independent of the capacity.
+ *
+ * The mean absolute deviation is kept relative to a reference value close to the mean. Adding or removing a value only changes the distance
+ * of this value to the reference. The distance to the actual mean is derived from the number of values above and below the reference.
+ * This is exact as long as no value lies between the reference and the mean, otherwise the error is at most twice the distance between both.
+ * The reference is moved to the mean, which takes one pass over the buffer, once the mean drifted away more than 1/64 of the mean.
+ * To keep the cost of adding a value independent of the music and the capacity, the reference is moved at most once per {@code size / 4}
+ * added values, so a pass costs at most four values per added value. In between the mean can drift further away for up to a quarter of the window.
+ *
+ * @author Alexander Liebald
+ */
+public class EnergyHistory {
+	private final long[] values;
+	private int start = 0;
+	private int size = 0;
+	private long sum = 0;
+
+	// Sum of the distances of all values to reference and number of values above reference
+	private long reference = 0;
+	private long deviationSum = 0;
+	private int above = 0;
+	// Values added since the reference was moved
+	private int sinceRebase = 0;
+
+	/**
+	 * @param capacity maximum number of values. The oldest value is removed when a value is added to a full buffer.
+	 */
+	public EnergyHistory(int capacity) {
+		values = new long[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Adds a value and removes the oldest value if the buffer is full.
+	 *
+	 * @param value value to add
+	 */
+	public void add(long value) {
+		if (size == values.length) {
+			remove(values[start]);
+			values[start] = value;
+			start = (start + 1) % values.length;
+		} else {
+			values[(start + size) % values.length] = value;
+			size++;
+		}
+
+		sum += value;
+		deviationSum += Math.abs(value - reference);
+		if (value > reference) {
+			above++;
+		}
+
+		// Move the reference to the mean if it drifted away too far, the pass over the buffer is paid for by the values added since the last one
+		sinceRebase++;
+		long mean = getMean();
+		if (sinceRebase >= size / 4 && Math.abs(mean - reference) > mean / 64) {
+			rebase(mean);
+		}
+	}
+
+	/**
+	 * Removes the statistics of an old value.
+	 */
+	private void remove(long value) {
+		sum -= value;
+		deviationSum -= Math.abs(value - reference);
+		if (value > reference) {
+			above--;
+		}
+	}
+
+	/**
+	 * Recomputes the distances of all values to a new reference.
+	 */
+	private void rebase(long newReference) {
+		reference = newReference;
+		deviationSum = 0;
+		above = 0;
+		sinceRebase = 0;
+		for (int i = 0; i < size; i++) {
+			long value = values[(start + i) % values.length];
+			deviationSum += Math.abs(value - reference);
+			if (value > reference) {
+				above++;
+			}
+		}
+	}
+
+	/**
+	 * @return sum of all values
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return mean of all values, 0 if the buffer is empty
+	 */
+	public long getMean() {
+		return size == 0 ? 0 : sum / size;
+	}
+
+	/**
+	 * @return mean absolute deviation of all values from their mean, 0 if the buffer is empty
+	 */
+	public long getMeanAbsoluteDeviation() {
+		if (size == 0) {
+			return 0;
+		}
+		// Values above the reference get closer to a larger mean, all others get further away
+		long distance = getMean() - reference;
+		long deviation = deviationSum + distance * (size - 2L * above);
+		return Math.max(0, deviation) / size;
+	}
+
+	/**
+	 * @param index index of the value, 0 is the oldest value
+	 * @return value at {@code index}
+	 */
+	public long get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return values[(start + index) % values.length];
+	}
+
+	/**
+	 * @return number of values in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return maximum number of values
+	 */
+	public int getCapacity() {
+		return values.length;
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		start = 0;
+		size = 0;
+		sum = 0;
+		reference = 0;
+		deviationSum = 0;
+		above = 0;
+		sinceRebase = 0;
+	}
+}
@@ -0,0 +1,120 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * In-place radix-2 fast fourier transform for a fixed size.
+ * The twiddle factors, the bit reversal permutation and a Hann window are computed once, so a transform does not allocate memory.
+ *
+ * @author Alexander Liebald
+ */
+public class FFT {
+	private final int size;
+	private final int[] reversed;
+	private final double[] cos;
+	private final double[] sin;
+	private final double[] window;
+
+	/**
+	 * @param size number of samples per transform, must be a power of two and at least 2
+	 *
+	 * @throws IllegalArgumentException if {@code size} is not a power of two
+	 */
+	public FFT(int size) {
+		if (size < 2 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("FFT size must be a power of two, got " + size);
+		}
+		this.size = size;
+
+		int bits = Integer.numberOfTrailingZeros(size);
+		reversed = new int[size];
+		for (int i = 0; i < size; i++) {
+			reversed[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cos = new double[size / 2];
+		sin = new double[size / 2];
+		for (int i = 0; i < size / 2; i++) {
+			cos[i] = Math.cos(2 * Math.PI * i / size);
+			sin[i] = -Math.sin(2 * Math.PI * i / size);
+		}
+
+		window = new double[size];
+		for (int i = 0; i < size; i++) {
+			window[i] = 0.5d - 0.5d * Math.cos(2 * Math.PI * i / (size - 1));
+		}
+	}
+
+	/**
+	 * Multiplies the samples with a Hann window, which reduces the leakage between frequency bins.
+	 *
+	 * @param samples array with at least {@code size} samples, changed in-place
+	 */
+	public void applyWindow(double[] samples) {
+		for (int i = 0; i < size; i++) {
+			samples[i] *= window[i];
+		}
+	}
+
+	/**
+	 * Transforms the signal into the frequency domain, in-place.
+	 *
+	 * @param re real part, at least {@code size} values
+	 * @param im imaginary part, at least {@code size} values. Use zeros for real input signals.
+	 */
+	public void transform(double[] re, double[] im) {
+		// Bit reversal permutation
+		for (int i = 0; i < size; i++) {
+			int j = reversed[i];
+			if (j > i) {
+				double tmp = re[i];
+				re[i] = re[j];
+				re[j] = tmp;
+				tmp = im[i];
+				im[i] = im[j];
+				im[j] = tmp;
+			}
+		}
+
+		// Butterflies, the length of the combined transforms doubles every pass
+		for (int length = 2; length <= size; length <<= 1) {
+			int half = length / 2;
+			int step = size / length;
+			for (int start = 0; start < size; start += length) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = sin[k * step];
+					int a = start + k;
+					int b = a + half;
+					double tr = re[b] * wr - im[b] * wi;
+					double ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of samples per transform
+	 */
+	public int getSize() {
+		return size;
+	}
+}
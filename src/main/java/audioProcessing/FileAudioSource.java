@@ -0,0 +1,132 @@
+package audioProcessing;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * AudioSource reading an audio file, e.g. WAV or AIFF, using an AudioInputStream.
+ * The audio is converted to signed 16 bit big endian PCM, the sample rate and number of channels of the file are kept.
+ *
+ * The file is either read as fast as possible, e.g. to analyze it offline, or at the speed it is played, e.g. to drive the lights without sound hardware.
+ *
+ * @author Alexander Liebald
+ */
+public class FileAudioSource implements AudioSource {
+	private final AudioInputStream stream;
+	private final AudioFormat format;
+	private final boolean realTime;
+
+	private long started = 0;
+	private long bytesRead = 0;
+
+	/**
+	 * Opens an audio file.
+	 *
+	 * @param file mono or stereo audio file in a format supported by AudioSystem, e.g. WAV or AIFF
+	 * @param realTime true to deliver the audio at the speed it is played, false to read it as fast as possible
+	 * @throws UnsupportedAudioFileException if the file is no audio file, can not be converted to PCM or has more than two channels
+	 * @throws IOException if the file could not be read
+	 */
+	public FileAudioSource(File file, boolean realTime) throws UnsupportedAudioFileException, IOException {
+		this.realTime = realTime;
+		AudioInputStream original = AudioSystem.getAudioInputStream(file);
+		AudioFormat originalFormat = original.getFormat();
+		if (originalFormat.getChannels() > 2) {
+			original.close();
+			throw new UnsupportedAudioFileException("Only mono and stereo files are supported: " + file);
+		}
+
+		format = new AudioFormat(originalFormat.getSampleRate(), 16, originalFormat.getChannels(), true, true);
+		try {
+			stream = AudioSystem.getAudioInputStream(format, original);
+		} catch (IllegalArgumentException e) {
+			original.close();
+			throw new UnsupportedAudioFileException("Can not convert " + originalFormat + " to " + format + ": " + file);
+		}
+	}
+
+	/**
+	 * Opens an audio file which is read as fast as possible.
+	 *
+	 * @param file mono or stereo audio file in a format supported by AudioSystem, e.g. WAV or AIFF
+	 * @throws UnsupportedAudioFileException if the file is no audio file, can not be converted to PCM or has more than two channels
+	 * @throws IOException if the file could not be read
+	 */
+	public FileAudioSource(File file) throws UnsupportedAudioFileException, IOException {
+		this(file, false);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public void start() {
+		started = System.nanoTime();
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (realTime) {
+			waitUntilPlayed();
+		}
+
+		// AudioInputStream may return less than requested, fill the whole buffer unless the file ended
+		int total = 0;
+		while (total < length) {
+			int read = stream.read(buffer, offset + total, length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		bytesRead += total;
+		return total > 0 ? total : -1;
+	}
+
+	/**
+	 * Waits until the audio read so far was played, so the audio is delivered at the speed it is played.
+	 */
+	private void waitUntilPlayed() throws IOException {
+		long played = started + (long) (bytesRead / (double) format.getFrameSize() / format.getSampleRate() * 1e9);
+		long remaining = played - System.nanoTime();
+		if (remaining > 0) {
+			try {
+				Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the audio to be played", e);
+			}
+		}
+	}
+
+	public void close() {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isRealTime() {
+		return realTime;
+	}
+}
@@ -0,0 +1,184 @@
+package audioProcessing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer for audio frames.
+ * All frames are preallocated. The producer writes directly into a free slot ({@link #claim()}, {@link #publish(int)}) and
+ * the consumer reads directly from the oldest slot ({@link #poll(long, TimeUnit)}, {@link #release()}), so no frame is copied.
+ *
+ * Only one thread may produce and only one thread may consume. The positions are published through volatile fields,
+ * the slot contents are visible to the other thread once the position was updated.
+ * A second consumer is rejected by {@link #poll(long, TimeUnit)} as long as the first one is alive.
+ *
+ * Every frame keeps the time it was published at, so a consumer that fell behind still knows when the audio was captured.
+ *
+ * If the consumer falls behind and all slots are full, new frames are dropped and counted as overruns.
+ * If no frame arrives within the timeout of {@link #poll(long, TimeUnit)}, an underrun is counted.
+ *
+ * @author Alexander Liebald
+ */
+public class FrameRingBuffer {
+	private final byte[][] frames;
+	private final int[] lengths;
+	private final long[] timestamps;
+	private final int mask;
+
+	// Number of frames published by the producer and released by the consumer
+	private volatile long written = 0;
+	private volatile long read = 0;
+
+	private volatile Thread waitingConsumer;
+	private final AtomicReference<Thread> consumer = new AtomicReference<>();
+
+	private volatile long overruns = 0;
+	private volatile long underruns = 0;
+
+	/**
+	 * @param capacity number of frames, rounded up to the next power of two
+	 * @param frameSize maximum size of a frame in bytes
+	 */
+	public FrameRingBuffer(int capacity, int frameSize) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		frames = new byte[size][frameSize];
+		lengths = new int[size];
+		timestamps = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the next free frame to the producer. The producer writes into it and calls {@link #publish(int)}.
+	 *
+	 * @return a free frame, or null if the buffer is full. In that case the frame should be dropped, it is counted as an overrun.
+	 */
+	public byte[] claim() {
+		if (written - read > mask) {
+			overruns++;
+			return null;
+		}
+		return frames[(int) (written & mask)];
+	}
+
+	/**
+	 * Makes the frame returned by the last call of {@link #claim()} available to the consumer and stores the current time as its capture time.
+	 *
+	 * @param length number of valid bytes in the frame
+	 */
+	public void publish(int length) {
+		lengths[(int) (written & mask)] = length;
+		timestamps[(int) (written & mask)] = System.nanoTime();
+		written = written + 1;
+
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Returns the oldest frame to the consumer, waiting for it if necessary. The frame stays valid until {@link #release()} is called.
+	 *
+	 * @param timeout maximum time to wait for a frame
+	 * @param unit unit of {@code timeout}
+	 * @return the oldest frame, or null if no frame arrived in time (counted as underrun) or the thread was interrupted
+	 * @throws IllegalStateException if another consumer thread is still alive
+	 */
+	public byte[] poll(long timeout, TimeUnit unit) {
+		Thread current = Thread.currentThread();
+		Thread owner = consumer.get();
+		if (owner != current && ((owner != null && owner.isAlive()) || !consumer.compareAndSet(owner, current))) {
+			throw new IllegalStateException("FrameRingBuffer is already consumed by " + consumer.get());
+		}
+		if (read == written) {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			waitingConsumer = Thread.currentThread();
+			try {
+				while (read == written) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+						underruns++;
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+			} finally {
+				waitingConsumer = null;
+			}
+		}
+		return frames[(int) (read & mask)];
+	}
+
+	/**
+	 * @return number of valid bytes in the frame returned by the last call of {@link #poll(long, TimeUnit)}
+	 */
+	public int getLength() {
+		return lengths[(int) (read & mask)];
+	}
+
+	/**
+	 * @return time the frame returned by the last call of {@link #poll(long, TimeUnit)} was published at, see {@link System#nanoTime()}
+	 */
+	public long getTimestamp() {
+		return timestamps[(int) (read & mask)];
+	}
+
+	/**
+	 * Returns the frame returned by the last call of {@link #poll(long, TimeUnit)} to the producer.
+	 */
+	public void release() {
+		read = read + 1;
+	}
+
+	/**
+	 * @return number of frames waiting for the consumer
+	 */
+	public int size() {
+		return (int) (written - read);
+	}
+
+	/**
+	 * @return number of frames the buffer can hold
+	 */
+	public int getCapacity() {
+		return frames.length;
+	}
+
+	/**
+	 * @return number of frames dropped because the consumer fell behind
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return number of times the consumer waited in vain for a frame
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 * @return number of frames published by the producer
+	 */
+	public long getWritten() {
+		return written;
+	}
+}
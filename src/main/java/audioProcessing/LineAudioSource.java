@@ -0,0 +1,201 @@
+package audioProcessing;
+
+import javax.sound.sampled.*;
+import java.util.LinkedList;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * AudioSource reading from a TargetDataLine of the sound system, e.g. a microphone or the monitor of an audio output.
+ * The line is opened with 44100Hz and 16bit, in mono if possible and in stereo otherwise.
+ *
+ * @author Alexander Liebald
+ */
+public class LineAudioSource implements AudioSource {
+	private static final float sampleRate = 44100;
+	private static final int sampleSizeInBits = 16;
+	// Format used to find compatible lines
+	private static final AudioFormat monoFormat = new AudioFormat(sampleRate, sampleSizeInBits, 1, true, true);
+
+	private final TargetDataLine line;
+	private final AudioFormat format;
+	private volatile long overruns = 0;
+
+	/**
+	 * Opens a TargetDataLine.
+	 *
+	 * @param targetDataLine The name of the TargetDataLine that should be opened, null for the standard TargetDataLine.
+	 *                       Get all possible TargetDataLines using {@link #getPossibleTargetDataLines()}
+	 * @throws LineUnavailableException Throws an LineUnavailableException if the selected line is not supported in either mono or stereo, 16bit, and 44100Hz.
+	 */
+	public LineAudioSource(String targetDataLine) throws LineUnavailableException {
+		if (targetDataLine != null) {
+			line = getTargetDataLine(targetDataLine);
+		} else {
+			line = getStdTargetDataLine();
+		}
+
+		AudioFormat opened;
+		try {
+			// Try opening line in mono
+			line.open(monoFormat);
+			opened = monoFormat;
+		} catch (LineUnavailableException ignored) {
+			// Try opening line in stereo format
+			System.out.println("Failed to open line in mono channel, trying stereo");
+			opened = new AudioFormat(sampleRate, sampleSizeInBits, 2, true, true);
+
+			// Try again, throws an exception if this fails too.
+			line.open(opened);
+		}
+		format = opened;
+	}
+
+	/**
+	 * Opens the standard TargetDataLine.
+	 *
+	 * @throws LineUnavailableException Throws an LineUnavailableException if the line is not supported in either mono or stereo, 16bit, and 44100Hz.
+	 */
+	public LineAudioSource() throws LineUnavailableException {
+		this(null);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public void start() {
+		line.start();
+	}
+
+	public int read(byte[] buffer, int offset, int length) {
+		if (line.available() >= line.getBufferSize()) {
+			// The line buffer is full, audio was lost since the last read
+			overruns++;
+		}
+		int read = line.read(buffer, offset, length);
+		if (read <= 0 && !line.isOpen()) {
+			return -1;
+		}
+		return read;
+	}
+
+	public void close() {
+		// Stopping the line returns a blocked read
+		line.stop();
+		line.close();
+	}
+
+	public boolean isRealTime() {
+		return true;
+	}
+
+	/**
+	 * @return number of times the line buffer was full before it was read
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * Returns the standard TargetDataLine.
+	 *
+	 * @return standard TargetDataLine to listen to.
+	 */
+	private static TargetDataLine getStdTargetDataLine() {
+		return getTargetDataLine(getPossibleTargetDataLines().getFirst());
+	}
+
+	/**
+	 * Get the TargetDataLine with the given name.
+	 *
+	 * @param name name of a TargetDataLine
+	 * @return TargetDataLine with the given {@code name}
+	 */
+	private static TargetDataLine getTargetDataLine(String name) {
+		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
+
+		Mixer mixer = null;
+		for (Mixer.Info m : mixers) {
+			if (m.getName().equals(name)){
+				mixer = AudioSystem.getMixer(m);
+				System.out.println(" Set mixer to " + mixer.getMixerInfo().getName());
+				break;
+			}
+		}
+		if (mixer == null) {
+			// TODO error handling
+			System.out.println("Failed to get mixer: " + name);
+			return getStdTargetDataLine();
+		}
+
+		Line.Info targetLineInfo = mixer.getTargetLineInfo()[0];
+		TargetDataLine targetDataLine = null;
+		try {
+			targetDataLine = (TargetDataLine) mixer.getLine(targetLineInfo);
+		} catch (LineUnavailableException e) {
+			// TODO
+			e.printStackTrace();
+		}
+
+		System.out.println("TargetDataLine: " + targetDataLine.getLineInfo() + "\n#######\n");
+		return targetDataLine;
+	}
+
+	/**
+	 * Gets a List with all compatible TargetDataLines
+	 *
+	 * @return all TargetDataLines that can be used
+	 */
+	public static LinkedList<String> getPossibleTargetDataLines() {
+		LinkedList<String> lines = new LinkedList<>();
+		DataLine.Info info = new DataLine.Info(TargetDataLine.class, monoFormat);
+		Mixer.Info[] mixers = AudioSystem.getMixerInfo();
+
+		for (Mixer.Info m : mixers) {
+			Mixer mixer = AudioSystem.getMixer(m);
+			if (canCreateTargetDataLine(mixer, info)) {
+				lines.add(mixer.getMixerInfo().getName());
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Checks if a line represented by a string is a valid TargetDataLine
+	 *
+	 * @param line name of a TargetDataLine.
+	 * @return true if {@code line} is a valid TargetDataLine.
+	 */
+	public static boolean isValidTargetDataLine(String line) {
+		for (String validLine : getPossibleTargetDataLines()) {
+			if (line.equals(validLine)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean canCreateTargetDataLine(Mixer mixer, DataLine.Info info) {
+		try {
+			TargetDataLine targetDataLine = (TargetDataLine) mixer.getLine(info);
+		} catch (Exception ignored) {
+			return false;
+		}
+		return true;
+	}
+}
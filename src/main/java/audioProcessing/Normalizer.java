@@ -1,8 +1,5 @@
 package audioProcessing;
 
-import java.util.Collections;
-import java.util.LinkedList;
-
 /*
  *  Copyright 2020 Alexander Liebald
  *
@@ -25,43 +22,54 @@ import java.util.LinkedList;
  * @author Alexander Liebald
  */
 public class Normalizer {
-	@SuppressWarnings("FieldCanBeLocal")
-	private final int historyBufferSize = 80; // One second are about 43 1024 byte samples (with 44100Hz, 8bit dual channel or 16 bin mono).
-	private final LinkedList<Short> historyBuffer = new LinkedList<>();
+	private static final int historyBufferSize = 80; // One second are about 43 1024 byte samples (with 44100Hz, 8bit dual channel or 16 bin mono).
+	// Frames with a maximum below silenceLevel are silent. The signal is silent after silentFrames silent frames in a row.
+	private static final int silenceLevel = 20;
+	private static final int silentFrames = 5;
+
+	// Monotonic deque with the candidates for the maximum of the last historyBufferSize frames, stored as a ring buffer.
+	// The values decrease from head to tail, so the head is always the maximum.
+	private final short[] maxValues = new short[historyBufferSize];
+	private final long[] maxFrames = new long[historyBufferSize];
+	private int head = 0;
+	private int length = 0;
+	private long frameCount = 0;
+
+	// Number of silent frames in a row
+	private int silentCount = 0;
+	// Static signal returned for silent input
+	private final short[] silentFrame = new short[1];
 
 	/**
 	 * Initiates a new Normalizer
 	 */
 	public Normalizer() {
-		// Add a few "silent" values to avoid index out of bounds in isSilent()
-		this.historyBuffer.add((short) 5);
-		this.historyBuffer.add((short) 5);
-		this.historyBuffer.add((short) 5);
-		this.historyBuffer.add((short) 5);
+		// Add a few "silent" values, so the Normalizer starts silent
+		for (int i = 0; i < silentFrames - 1; i++) {
+			addMax((short) 5);
+		}
 	}
 
 	/**
 	 * Normalizes a frame using the information from older frames
 	 *
 	 * @param frame Audio frame with one value per short. Use AudioProcessor to convert 16 bit streams (2 bytes per value) to a short array
+	 * @return {@code frame}, normalized in-place, or an array owned by this Normalizer with a static signal if the input is silent.
+	 * 			The array is reused by the next call.
 	 * @see AudioProcessor
 	 */
 	public short[] normalize(short[] frame) {
-		// Add the maximum of the current frame to the historyBuffer
-		short max = findAbsMax(frame);
-		historyBuffer.add(max);
-
-		if (historyBuffer.size() > historyBufferSize) {
-			historyBuffer.pop();
-		}
+		// Add the maximum of the current frame to the history
+		addMax(findAbsMax(frame));
 
 		// If the current input is silent, so new music / voices etc., return a static signal
 		if (isSilent()) {
-			return new short[]{100};
+			silentFrame[0] = 100;
+			return silentFrame;
 		}
 
-		// find the largest value from the last HISTORY_BUFFER_SIZE frames
-		max = Collections.max(historyBuffer);
+		// the largest value from the last historyBufferSize frames
+		short max = maxValues[head];
 		double offset = (double) Short.MAX_VALUE / max; // Warning: changing ths computation leads to problems in BeatDetector!
 
 		// Normalize each sample in-place
@@ -73,13 +81,38 @@ public class Normalizer {
 	}
 
 	/**
-	 * Checks the last 5 few frames to determine whether or not there is no sound output.
+	 * Adds the maximum of a frame to the sliding window. Amortized O(1), since every value is added and removed from the deque at most once.
+	 *
+	 * @param max maximum of the newest frame
+	 */
+	private void addMax(short max) {
+		// Values lower than the new maximum can never become the maximum again
+		while (length > 0 && maxValues[(head + length - 1) % historyBufferSize] <= max) {
+			length--;
+		}
+		// Remove the maximum once it left the window
+		if (length > 0 && maxFrames[head] <= frameCount - historyBufferSize) {
+			head = (head + 1) % historyBufferSize;
+			length--;
+		}
+
+		int tail = (head + length) % historyBufferSize;
+		maxValues[tail] = max;
+		maxFrames[tail] = frameCount;
+		length++;
+		frameCount++;
+
+		silentCount = max < silenceLevel ? silentCount + 1 : 0;
+	}
+
+	/**
+	 * Checks the last 5 frames to determine whether or not there is no sound output.
 	 * This can be used to avoid upscaling noise between songs or when no music is playing.
 	 *
 	 * @return true if the current signal is silent and therefore should not be up-scaled.
 	 */
 	private boolean isSilent() {
-		return historyBuffer.get(0) < 20 && historyBuffer.get(1) < 20 && historyBuffer.get(2) < 20 && historyBuffer.get(3) < 20 && historyBuffer.get(4) < 20;
+		return silentCount >= silentFrames;
 	}
 
 	/**
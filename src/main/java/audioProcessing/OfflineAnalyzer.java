@@ -0,0 +1,298 @@
+package audioProcessing;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Runs the {@link BeatDetector} over audio files as fast as possible, e.g. to tune the sensitivity and cooldown for a playlist.
+ * Every file is analyzed by its own BeatDetector, the files of a directory are analyzed in parallel.
+ *
+ * For every file the detected beats and the detection function and threshold of every frame (see {@link BeatDetector#getValue()}) are written:
+ * <ul>
+ *     <li>CSV: {@code <file>.beats.csv} with the time of every beat and {@code <file>.frames.csv} with one line per frame</li>
+ *     <li>BINARY: {@code <file>.frames.bin}, the header {@code int magic, int version, double frameMillis}
+ *     followed by {@code float value, float threshold, byte beat} per frame, big endian</li>
+ * </ul>
+ *
+ * @author Alexander Liebald
+ */
+public class OfflineAnalyzer {
+	/**
+	 * "MLBD", first four bytes of a binary output file
+	 */
+	public static final int binaryMagic = 0x4D4C4244;
+	public static final int binaryVersion = 1;
+
+	/**
+	 * Output formats
+	 */
+	public enum Format {
+		CSV, BINARY
+	}
+
+	private final int cooldown;
+	private final double sensitivity;
+	private final DetectionEngine engine;
+	private final Format format;
+
+	/**
+	 * @param cooldown minimum time in milliseconds between beats, see {@link BeatDetector#setCooldown(long)}
+	 * @param sensitivity sensitivity for beat detection, see {@link BeatDetector#setSensitivity(double)}
+	 * @param engine algorithm used to detect beats
+	 * @param format output format
+	 */
+	public OfflineAnalyzer(int cooldown, double sensitivity, DetectionEngine engine, Format format) {
+		this.cooldown = cooldown;
+		this.sensitivity = sensitivity;
+		this.engine = engine;
+		this.format = format;
+	}
+
+	/**
+	 * Analyzes a single file.
+	 *
+	 * @param file audio file, e.g. WAV or AIFF
+	 * @param outputDirectory directory receiving the output files
+	 * @return summary of the analysis
+	 * @throws UnsupportedAudioFileException if the file is no supported audio file
+	 * @throws IOException if the file could not be read or the output could not be written
+	 */
+	public Result analyze(File file, File outputDirectory) throws UnsupportedAudioFileException, IOException {
+		long start = System.nanoTime();
+		BeatDetector beatDetector = new BeatDetector(cooldown, new FileAudioSource(file), sensitivity);
+		beatDetector.setEngine(engine);
+		double frameMillis = beatDetector.getFrameMillis();
+		String name = file.getName();
+		long beats = 0;
+
+		try {
+			if (format == Format.CSV) {
+				try (Writer frames = new BufferedWriter(new FileWriter(new File(outputDirectory, name + ".frames.csv")), 1 << 16);
+					 Writer beatList = new BufferedWriter(new FileWriter(new File(outputDirectory, name + ".beats.csv")))) {
+					frames.write("frame,time_ms,value,threshold,beat\n");
+					beatList.write("beat,time_ms\n");
+					StringBuilder line = new StringBuilder();
+					while (true) {
+						boolean beat = beatDetector.detect();
+						if (beatDetector.isFinished()) {
+							break;
+						}
+						long frame = beatDetector.getFrames() - 1;
+						double time = frame * frameMillis;
+						line.setLength(0);
+						line.append(frame).append(',').append(time).append(',').append(beatDetector.getValue()).append(',')
+								.append(beatDetector.getThreshold()).append(',').append(beat ? 1 : 0).append('\n');
+						frames.append(line);
+						if (beat) {
+							beatList.append(Long.toString(beats++)).append(',').append(Double.toString(time)).append('\n');
+						}
+					}
+				}
+			} else {
+				try (DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(outputDirectory, name + ".frames.bin")), 1 << 16))) {
+					frames.writeInt(binaryMagic);
+					frames.writeInt(binaryVersion);
+					frames.writeDouble(frameMillis);
+					while (true) {
+						boolean beat = beatDetector.detect();
+						if (beatDetector.isFinished()) {
+							break;
+						}
+						frames.writeFloat((float) beatDetector.getValue());
+						frames.writeFloat((float) beatDetector.getThreshold());
+						frames.writeByte(beat ? 1 : 0);
+						if (beat) {
+							beats++;
+						}
+					}
+				}
+			}
+		} finally {
+			beatDetector.close();
+		}
+
+		return new Result(file, beatDetector.getFrames(), beats, beatDetector.getFrames() * frameMillis / 1000, beatDetector.getBpm(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Analyzes all audio files of a directory in parallel, using one thread per core.
+	 * Files which can not be analyzed are reported and skipped.
+	 *
+	 * @param directory directory containing audio files, only files with an extension supported by AudioSystem are analyzed
+	 * @param outputDirectory directory receiving the output files
+	 * @param threads number of files analyzed at the same time
+	 * @return summaries of all analyzed files
+	 * @throws InterruptedException if interrupted while waiting for the analysis
+	 */
+	public List<Result> analyzeDirectory(File directory, File outputDirectory, int threads) throws InterruptedException {
+		Set<String> extensions = new HashSet<>();
+		for (AudioFileFormat.Type type : AudioSystem.getAudioFileTypes()) {
+			extensions.add(type.getExtension().toLowerCase(Locale.ROOT));
+		}
+		// AudioSystem only reports aif for AIFF files
+		extensions.add("aiff");
+
+		List<File> files = new ArrayList<>();
+		File[] content = directory.listFiles();
+		if (content != null) {
+			for (File file : content) {
+				String name = file.getName();
+				int dot = name.lastIndexOf('.');
+				if (file.isFile() && dot >= 0 && extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+					files.add(file);
+				}
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<Result>> futures = new ArrayList<>();
+		for (File file : files) {
+			futures.add(executor.submit(() -> analyze(file, outputDirectory)));
+		}
+		executor.shutdown();
+
+		List<Result> results = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).get());
+			} catch (ExecutionException e) {
+				System.out.println("Failed to analyze " + files.get(i) + ": " + e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Summary of an analyzed file
+	 */
+	public static class Result {
+		private final File file;
+		private final long frames;
+		private final long beats;
+		private final double seconds;
+		private final double bpm;
+		private final long nanos;
+
+		private Result(File file, long frames, long beats, double seconds, double bpm, long nanos) {
+			this.file = file;
+			this.frames = frames;
+			this.beats = beats;
+			this.seconds = seconds;
+			this.bpm = bpm;
+			this.nanos = nanos;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getFrames() {
+			return frames;
+		}
+
+		public long getBeats() {
+			return beats;
+		}
+
+		/**
+		 * @return length of the audio in seconds
+		 */
+		public double getSeconds() {
+			return seconds;
+		}
+
+		/**
+		 * @return tempo estimated at the end of the file
+		 */
+		public double getBpm() {
+			return bpm;
+		}
+
+		/**
+		 * @return time the analysis took in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return how many times faster than real time the file was analyzed
+		 */
+		public double getSpeed() {
+			return nanos > 0 ? seconds * 1e9 / nanos : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: %d beats in %.1f s, %.1f BPM, analyzed %.0fx faster than real time",
+					file.getName(), beats, seconds, bpm, getSpeed());
+		}
+	}
+
+	/**
+	 * Analyzes a file or all audio files of a directory.
+	 * Arguments: input file or directory, output directory [csv|binary, default csv] [engine, default ENERGY] [cooldown in ms, default 150] [sensitivity, default 1.0]
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: OfflineAnalyzer <input file or directory> <output directory> [csv|binary] [ENERGY|SPECTRAL|ONSET] [cooldown] [sensitivity]");
+			return;
+		}
+		File input = new File(args[0]);
+		File output = new File(args[1]);
+		Format format = args.length > 2 && args[2].equalsIgnoreCase("binary") ? Format.BINARY : Format.CSV;
+		DetectionEngine engine = args.length > 3 ? DetectionEngine.fromString(args[3]) : DetectionEngine.ENERGY;
+		int cooldown = args.length > 4 ? Integer.parseInt(args[4]) : 150;
+		double sensitivity = args.length > 5 ? Double.parseDouble(args[5]) : 1.0d;
+
+		if (!output.isDirectory() && !output.mkdirs()) {
+			System.out.println("Failed to create output directory " + output);
+			return;
+		}
+
+		OfflineAnalyzer analyzer = new OfflineAnalyzer(cooldown, sensitivity, engine, format);
+		long start = System.nanoTime();
+		List<Result> results;
+		if (input.isDirectory()) {
+			results = analyzer.analyzeDirectory(input, output, Runtime.getRuntime().availableProcessors());
+		} else {
+			results = new ArrayList<>();
+			results.add(analyzer.analyze(input, output));
+		}
+
+		double seconds = 0;
+		for (Result result : results) {
+			System.out.println(result);
+			seconds += result.getSeconds();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Analyzed %d files, %.1f s of audio in %.2f s", results.size(), seconds, elapsed));
+	}
+}
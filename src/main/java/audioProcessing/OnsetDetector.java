@@ -0,0 +1,186 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Onset detection using the spectral flux.
+ * The spectrum is reduced to logarithmic bands, so every octave has about the same weight and a kick drum counts as much as a snare.
+ * The flux of a frame is the mean increase of the (log compressed) magnitude of every band compared to the previous frame.
+ * Decreasing bands are ignored (half-wave rectification), so only new sounds raise the flux.
+ *
+ * A frame is an onset if its flux is above an adaptive threshold and higher than the flux of the previous frame:
+ * {@code threshold = sensitivity * (medianWeight * median + meanWeight * mean) + minimumFlux}, using the median and mean flux of the last frames.
+ * The median ignores single loud onsets, the mean follows the general level of the music.
+ * Onsets are reported while the flux rises, without waiting for its peak, so percussive attacks are reported one frame earlier than by energy thresholds.
+ *
+ * @author Alexander Liebald
+ */
+public class OnsetDetector {
+	private static final double medianWeight = 1.0d;
+	private static final double meanWeight = 0.5d;
+	// Lower bound of the threshold, so noise in very quiet passages does not cause onsets
+	private static final double minimumFlux = 0.1d;
+	// log(1 + compression * magnitude) reduces the influence of loud bins and makes the flux independent of the volume
+	private static final double compression = 1.0d;
+
+	private final SpectrumAnalyzer spectrum;
+	// First bin of each band, bandStart[bands] is the end of the last band
+	private final int[] bandStart;
+	private final double[] magnitudes;
+	private final double[] previous;
+	private boolean first = true;
+
+	// Flux of the last frames as ring buffer with a running sum, and the same values sorted for the median
+	private final double[] history;
+	private final double[] sorted;
+	private int historyIndex = 0;
+	private int historyCount = 0;
+	private double historySum = 0;
+
+	private double flux = 0;
+	private double lastFlux = 0;
+	private double threshold = 0;
+
+	/**
+	 * @param fftSize number of samples per transform, must be a power of two. A size equal to the frame length gives the lowest latency.
+	 * @param sampleRate sample rate of the audio stream in Hz
+	 * @param bands number of logarithmic bands
+	 * @param historySize number of frames used for the adaptive threshold
+	 */
+	public OnsetDetector(int fftSize, float sampleRate, int bands, int historySize) {
+		spectrum = new SpectrumAnalyzer(fftSize, sampleRate);
+		bandStart = spectrum.getLogarithmicBands(bands);
+		magnitudes = new double[bandStart.length - 1];
+		previous = new double[bandStart.length - 1];
+		history = new double[Math.max(1, historySize)];
+		sorted = new double[history.length];
+	}
+
+	/**
+	 * Analyzes a frame.
+	 *
+	 * @param frame interleaved 16 bit samples
+	 * @param length number of values in {@code frame}
+	 * @param channels number of interleaved channels
+	 * @param sensitivity sensitivity for onset detection. A low value will lead to a lower threshold.
+	 * @return true if the frame contains an onset
+	 */
+	public boolean analyze(short[] frame, int length, int channels, double sensitivity) {
+		double[] power = spectrum.update(frame, length, channels);
+
+		// Half-wave rectified difference of the compressed band magnitudes
+		lastFlux = flux;
+		flux = 0;
+		for (int band = 0; band < magnitudes.length; band++) {
+			double sum = 0;
+			for (int bin = bandStart[band]; bin < bandStart[band + 1]; bin++) {
+				sum += power[bin];
+			}
+			magnitudes[band] = Math.log1p(compression * Math.sqrt(sum / (bandStart[band + 1] - bandStart[band])));
+			double increase = magnitudes[band] - previous[band];
+			if (increase > 0) {
+				flux += increase;
+			}
+		}
+		flux /= magnitudes.length;
+		System.arraycopy(magnitudes, 0, previous, 0, magnitudes.length);
+
+		if (first) {
+			// The first frame has no predecessor, its flux is the whole spectrum
+			first = false;
+			flux = 0;
+		}
+
+		if (historyCount > 0) {
+			threshold = sensitivity * (medianWeight * median() + meanWeight * historySum / historyCount) + minimumFlux;
+		} else {
+			threshold = Double.MAX_VALUE;
+		}
+		boolean onset = flux > threshold && flux > lastFlux;
+
+		addToHistory(flux);
+		return onset;
+	}
+
+	/**
+	 * Adds a flux value to the history, replacing the oldest value once the history is full.
+	 * The sorted copy is updated by moving the values between the removed and the inserted position, which is cheap for short histories.
+	 */
+	private void addToHistory(double value) {
+		int position;
+		if (historyCount == history.length) {
+			double old = history[historyIndex];
+			historySum -= old;
+			position = indexOf(old);
+			// Close the gap of the removed value
+			System.arraycopy(sorted, position + 1, sorted, position, historyCount - position - 1);
+			historyCount--;
+		}
+
+		// Insert the new value at its sorted position
+		position = historyCount;
+		while (position > 0 && sorted[position - 1] > value) {
+			sorted[position] = sorted[position - 1];
+			position--;
+		}
+		sorted[position] = value;
+		historyCount++;
+
+		history[historyIndex] = value;
+		historySum += value;
+		historyIndex = (historyIndex + 1) % history.length;
+	}
+
+	/**
+	 * Binary search for a value in the sorted history.
+	 */
+	private int indexOf(double value) {
+		int low = 0;
+		int high = historyCount - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return median of the flux history
+	 */
+	private double median() {
+		int middle = historyCount / 2;
+		return historyCount % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+
+	/**
+	 * @return spectral flux of the last frame
+	 */
+	public double getFlux() {
+		return flux;
+	}
+
+	/**
+	 * @return adaptive threshold of the last frame
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+}
@@ -0,0 +1,128 @@
+package audioProcessing;
+
+import java.util.Arrays;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Computes the power spectrum of the last {@code size} samples of an audio stream.
+ * Frames can be shorter than the FFT, in that case consecutive transforms overlap. Stereo frames are mixed down to mono.
+ * All buffers are allocated once, so {@link #update(short[], int, int)} does not allocate memory.
+ *
+ * @author Alexander Liebald
+ */
+public class SpectrumAnalyzer {
+	private final FFT fft;
+	private final float sampleRate;
+	// The last fft.getSize() mono samples, the newest sample is at the end
+	private final double[] samples;
+	private final double[] re;
+	private final double[] im;
+	private final double[] power;
+
+	/**
+	 * @param size number of samples per transform, must be a power of two
+	 * @param sampleRate sample rate of the audio stream in Hz
+	 */
+	public SpectrumAnalyzer(int size, float sampleRate) {
+		this.fft = new FFT(size);
+		this.sampleRate = sampleRate;
+		samples = new double[size];
+		re = new double[size];
+		im = new double[size];
+		power = new double[size / 2 + 1];
+	}
+
+	/**
+	 * Adds a frame to the analyzed samples and computes the power spectrum of the last {@code size} samples.
+	 *
+	 * @param frame interleaved 16 bit samples
+	 * @param length number of values in {@code frame}
+	 * @param channels number of interleaved channels, all channels are mixed to mono
+	 * @return power of each frequency bin, bin i contains the frequency {@code i * sampleRate / size}. The array is reused by the next call.
+	 */
+	public double[] update(short[] frame, int length, int channels) {
+		int size = samples.length;
+		int mono = length / channels;
+		int keep = Math.max(0, size - mono);
+
+		// Drop the oldest samples and append the new frame
+		System.arraycopy(samples, size - keep, samples, 0, keep);
+		int skip = mono - (size - keep);
+		for (int i = keep; i < size; i++) {
+			int offset = (skip + i - keep) * channels;
+			int sum = 0;
+			for (int c = 0; c < channels; c++) {
+				sum += frame[offset + c];
+			}
+			samples[i] = (double) sum / channels;
+		}
+
+		System.arraycopy(samples, 0, re, 0, size);
+		Arrays.fill(im, 0.0d);
+		fft.applyWindow(re);
+		fft.transform(re, im);
+
+		for (int i = 0; i < power.length; i++) {
+			power[i] = re[i] * re[i] + im[i] * im[i];
+		}
+		return power;
+	}
+
+	/**
+	 * Splits the bins 1 to {@code size / 2} (without the dc offset) into logarithmic bands, every band has at least one bin.
+	 *
+	 * @param bands number of bands. Fewer bands are returned if the lowest bands would be narrower than one bin.
+	 * @return first bin of each band, the last element is the end of the last band. The length is the number of bands + 1.
+	 */
+	public int[] getLogarithmicBands(int bands) {
+		int lastBin = power.length;
+		int[] starts = new int[bands + 1];
+		int count = 0;
+		starts[0] = 1;
+		for (int i = 1; i <= bands; i++) {
+			int start = (int) Math.round(Math.pow(lastBin, (double) i / bands));
+			if (start > starts[count] && start <= lastBin) {
+				starts[++count] = start;
+			}
+		}
+		return Arrays.copyOf(starts, count + 1);
+	}
+
+	/**
+	 * @param bin index of a frequency bin
+	 * @return frequency of the bin in Hz
+	 */
+	public float getFrequency(int bin) {
+		return bin * sampleRate / samples.length;
+	}
+
+	/**
+	 * @param frequency frequency in Hz
+	 * @return index of the bin containing the frequency
+	 */
+	public int getBin(float frequency) {
+		return Math.min(power.length - 1, Math.max(0, Math.round(frequency * samples.length / sampleRate)));
+	}
+
+	/**
+	 * @return number of frequency bins, {@code size / 2 + 1}
+	 */
+	public int getBins() {
+		return power.length;
+	}
+}
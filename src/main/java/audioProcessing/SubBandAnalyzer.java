@@ -0,0 +1,180 @@
+package audioProcessing;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Spectral beat detection. The spectrum of every frame is split into logarithmic sub-bands and every band is compared to its own history.
+ * A beat is detected if the energy of a bass band rises above its threshold, so hi-hats and vocals do not cause beats
+ * and a kick drum is still detected if a bass line keeps the overall energy high.
+ *
+ * The threshold of a band is {@code sensitivity * (mean + 1.5 * standard deviation)} of its energy history.
+ * Mean and standard deviation are updated with every frame, so a frame costs the same time independent of the history length.
+ *
+ * @author Alexander Liebald
+ */
+public class SubBandAnalyzer {
+	private static final double deviationFactor = 1.5d;
+	// Bands with an upper frequency up to maxBeatFrequency Hz can trigger beats
+	private static final float maxBeatFrequency = 200.0f;
+
+	private final SpectrumAnalyzer spectrum;
+	private final int bands;
+	// First bin of each band, bandStart[bands] is the end of the last band
+	private final int[] bandStart;
+	private final int beatBands;
+
+	// Energy history of each band, stored as ring buffers with a running sum and sum of squares
+	private final double[][] history;
+	private final double[] sums;
+	private final double[] sumSquares;
+	private int historyIndex = 0;
+	private int historyCount = 0;
+
+	private final double[] energies;
+	private final double[] thresholds;
+
+	/**
+	 * @param fftSize number of samples per transform, must be a power of two. Frames shorter than this overlap.
+	 * @param sampleRate sample rate of the audio stream in Hz
+	 * @param bands number of logarithmic sub-bands. The number may be reduced if the FFT has not enough bins for the lowest bands.
+	 * @param historySize number of frames each band is compared to
+	 */
+	public SubBandAnalyzer(int fftSize, float sampleRate, int bands, int historySize) {
+		spectrum = new SpectrumAnalyzer(fftSize, sampleRate);
+
+		bandStart = spectrum.getLogarithmicBands(bands);
+		this.bands = bandStart.length - 1;
+
+		int beat = 0;
+		while (beat < this.bands && spectrum.getFrequency(bandStart[beat + 1] - 1) <= maxBeatFrequency) {
+			beat++;
+		}
+		beatBands = Math.max(1, beat);
+
+		history = new double[this.bands][Math.max(1, historySize)];
+		sums = new double[this.bands];
+		sumSquares = new double[this.bands];
+		energies = new double[this.bands];
+		thresholds = new double[this.bands];
+	}
+
+	/**
+	 * Analyzes a frame.
+	 *
+	 * @param frame interleaved 16 bit samples
+	 * @param length number of values in {@code frame}
+	 * @param channels number of interleaved channels
+	 * @param sensitivity sensitivity for beat detection. A low value will lead to a lower threshold.
+	 * @return true if the energy of a bass band is above its threshold
+	 */
+	public boolean analyze(short[] frame, int length, int channels, double sensitivity) {
+		double[] power = spectrum.update(frame, length, channels);
+		boolean beat = false;
+
+		for (int band = 0; band < bands; band++) {
+			double energy = 0;
+			for (int bin = bandStart[band]; bin < bandStart[band + 1]; bin++) {
+				energy += power[bin];
+			}
+			energy /= bandStart[band + 1] - bandStart[band];
+			energies[band] = energy;
+
+			if (historyCount > 0) {
+				double mean = sums[band] / historyCount;
+				double variance = Math.max(0, sumSquares[band] / historyCount - mean * mean);
+				thresholds[band] = sensitivity * (mean + deviationFactor * Math.sqrt(variance));
+			} else {
+				thresholds[band] = energy;
+			}
+
+			if (band < beatBands && energy > thresholds[band]) {
+				beat = true;
+			}
+
+			// Replace the oldest energy of this band
+			if (historyCount == history[band].length) {
+				double old = history[band][historyIndex];
+				sums[band] -= old;
+				sumSquares[band] -= old * old;
+			}
+			history[band][historyIndex] = energy;
+			sums[band] += energy;
+			sumSquares[band] += energy * energy;
+		}
+
+		historyIndex = (historyIndex + 1) % history[0].length;
+		historyCount = Math.min(historyCount + 1, history[0].length);
+		if (historyIndex == 0) {
+			recomputeSums();
+		}
+		return beat;
+	}
+
+	/**
+	 * Recomputes the running sums once per pass over the history, so rounding errors of loud passages do not affect quiet passages.
+	 */
+	private void recomputeSums() {
+		for (int band = 0; band < bands; band++) {
+			double sum = 0;
+			double squares = 0;
+			for (double energy : history[band]) {
+				sum += energy;
+				squares += energy * energy;
+			}
+			sums[band] = sum;
+			sumSquares[band] = squares;
+		}
+	}
+
+	/**
+	 * @return number of sub-bands
+	 */
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * @return number of the lowest sub-bands which can trigger a beat
+	 */
+	public int getBeatBands() {
+		return beatBands;
+	}
+
+	/**
+	 * @param band index of a sub-band
+	 * @return lowest frequency of the band in Hz
+	 */
+	public float getBandFrequency(int band) {
+		return spectrum.getFrequency(bandStart[band]);
+	}
+
+	/**
+	 * @param band index of a sub-band
+	 * @return energy of the band in the last frame
+	 */
+	public double getEnergy(int band) {
+		return energies[band];
+	}
+
+	/**
+	 * @param band index of a sub-band
+	 * @return threshold of the band in the last frame
+	 */
+	public double getThreshold(int band) {
+		return thresholds[band];
+	}
+}
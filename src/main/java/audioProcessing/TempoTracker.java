@@ -0,0 +1,210 @@
+package audioProcessing;
+
+import java.util.Arrays;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Estimates the tempo of the music by autocorrelating the onset envelope of the last few seconds.
+ * The envelope has one value per frame, e.g. the spectral flux or the increase of the energy.
+ *
+ * The autocorrelation is updated incrementally: a new envelope value adds its products with the older values for every lag
+ * and the value leaving the window removes its products. A frame costs O(number of lags) instead of O(window * lags).
+ * The lag with the highest autocorrelation, weighted towards 120 BPM to prefer the beat over half or double time, is the beat period.
+ *
+ * @author Alexander Liebald
+ */
+public class TempoTracker {
+	private static final double preferredBpm = 120.0d;
+	// Width of the tempo preference in octaves
+	private static final double preferenceWidth = 1.0d;
+
+	private final double framesPerSecond;
+	private final int minLag;
+	private final int maxLag;
+
+	// Envelope of the last frames, as ring buffer
+	private final double[] envelope;
+	private int index = 0;
+	private int count = 0;
+	private long frames = 0;
+
+	// Autocorrelation for lags 0 to maxLag and the weights of the tempo preference
+	private final double[] correlation;
+	private final double[] weights;
+
+	private volatile double bpm = 0;
+	private volatile double confidence = 0;
+
+	/**
+	 * @param framesPerSecond number of envelope values per second, e.g. 44100 / 512 for frames with 512 samples at 44100 Hz
+	 * @param windowSeconds length of the analyzed envelope in seconds. Should contain a few beats at the lowest tempo.
+	 * @param minBpm lowest detectable tempo
+	 * @param maxBpm highest detectable tempo
+	 */
+	public TempoTracker(double framesPerSecond, double windowSeconds, double minBpm, double maxBpm) {
+		this.framesPerSecond = framesPerSecond;
+		minLag = Math.max(1, (int) Math.floor(60.0d * framesPerSecond / maxBpm));
+		maxLag = Math.max(minLag + 2, (int) Math.ceil(60.0d * framesPerSecond / minBpm));
+		envelope = new double[Math.max(2 * maxLag, (int) (windowSeconds * framesPerSecond))];
+		correlation = new double[maxLag + 1];
+
+		weights = new double[maxLag + 1];
+		for (int lag = minLag; lag <= maxLag; lag++) {
+			double octaves = Math.log(60.0d * framesPerSecond / lag / preferredBpm) / Math.log(2);
+			weights[lag] = Math.exp(-0.5d * (octaves / preferenceWidth) * (octaves / preferenceWidth));
+		}
+	}
+
+	/**
+	 * Creates a TempoTracker which analyzes the last 6 seconds and detects tempos between 60 and 200 BPM.
+	 *
+	 * @param framesPerSecond number of envelope values per second
+	 */
+	public TempoTracker(double framesPerSecond) {
+		this(framesPerSecond, 6.0d, 60.0d, 200.0d);
+	}
+
+	/**
+	 * Adds the envelope value of the next frame and updates the tempo estimation.
+	 *
+	 * @param value onset envelope of the frame, should not be negative
+	 */
+	public void update(double value) {
+		int length = envelope.length;
+
+		if (count == length) {
+			// Remove the products of the oldest value, it leaves the window
+			int oldest = index;
+			double old = envelope[oldest];
+			for (int lag = 0; lag <= maxLag; lag++) {
+				correlation[lag] -= old * envelope[(oldest + lag) % length];
+			}
+		} else {
+			count++;
+		}
+
+		// Add the products of the new value with the older values
+		envelope[index] = value;
+		for (int lag = 0; lag <= maxLag && lag < count; lag++) {
+			correlation[lag] += value * envelope[(index - lag + length) % length];
+		}
+		index = (index + 1) % length;
+		frames++;
+
+		// Rounding errors of added and removed products would add up, recompute once per window
+		if (frames % length == 0) {
+			recompute();
+		}
+
+		estimate();
+	}
+
+	/**
+	 * Finds the beat period in the autocorrelation.
+	 */
+	private void estimate() {
+		if (count < 2 * maxLag || correlation[0] <= 0) {
+			return;
+		}
+
+		// Normalize by the number of products per lag, so long lags are not penalized
+		int best = -1;
+		double bestScore = 0;
+		double sum = 0;
+		for (int lag = minLag; lag <= maxLag; lag++) {
+			double normalized = correlation[lag] / (count - lag);
+			sum += normalized;
+			double score = normalized * weights[lag];
+			if (score > bestScore) {
+				bestScore = score;
+				best = lag;
+			}
+		}
+		if (best < 0) {
+			return;
+		}
+
+		// Parabolic interpolation between the neighbours of the peak gives a fractional lag
+		double lag = best;
+		if (best > minLag && best < maxLag) {
+			double left = correlation[best - 1] / (count - best + 1);
+			double center = correlation[best] / (count - best);
+			double right = correlation[best + 1] / (count - best - 1);
+			double denominator = left - 2 * center + right;
+			if (denominator < 0) {
+				lag += 0.5d * (left - right) / denominator;
+			}
+		}
+
+		// Confidence: height of the peak above the mean of all lags, relative to the energy of the envelope
+		double mean = sum / (maxLag - minLag + 1);
+		double peak = correlation[best] / (count - best);
+		double energy = correlation[0] / count;
+		confidence = energy > mean ? Math.max(0, Math.min(1, (peak - mean) / (energy - mean))) : 0;
+		bpm = 60.0d * framesPerSecond / lag;
+	}
+
+	/**
+	 * Recomputes the autocorrelation of the whole window.
+	 */
+	private void recompute() {
+		int length = envelope.length;
+		int newest = (index - 1 + length) % length;
+		for (int lag = 0; lag <= maxLag; lag++) {
+			double sum = 0;
+			for (int i = 0; i < count - lag; i++) {
+				sum += envelope[(newest - i + length) % length] * envelope[(newest - i - lag + 2 * length) % length];
+			}
+			correlation[lag] = sum;
+		}
+	}
+
+	/**
+	 * @return estimated tempo in beats per minute, 0 if not enough frames were analyzed yet
+	 */
+	public double getBpm() {
+		return bpm;
+	}
+
+	/**
+	 * @return confidence of the estimated tempo between 0 (no periodicity) and 1 (perfectly periodic envelope)
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * @return length of a beat in milliseconds, 0 if the tempo is not known yet
+	 */
+	public double getBeatPeriod() {
+		double current = bpm;
+		return current > 0 ? 60000.0d / current : 0;
+	}
+
+	/**
+	 * Removes the analyzed envelope, e.g. when the song changes.
+	 */
+	public void reset() {
+		index = 0;
+		count = 0;
+		frames = 0;
+		Arrays.fill(correlation, 0);
+		bpm = 0;
+		confidence = 0;
+	}
+}
@@ -6,6 +6,8 @@ import java.nio.channels.IllegalBlockingModeException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
  *  Copyright 2020 Alexander Liebald
@@ -28,19 +30,66 @@ import java.util.HashSet;
  * Please Note that only MiLight Bridge version 6 with MiLight RGB and MiLight RGBW controllers are supported.
  * If you want to use this with another version it will probably not work. Feel free to contact me (https://github.com/ALiebald), maybe we can add your bridge/controller to the supported bridge versions/controllers.
  *
+ * The bridge keeps the last acknowledged state of every zone and skips commands that would not change it, e.g. setting the same brightness twice.
+ * Use {@link #forced()} to send commands regardless of the state. The state is forgotten when a new session is started.
+ *
  * @author Alexander Liebald
  */
 @SuppressWarnings("unused")
-public class Bridge {
+public class Bridge implements LightController {
 	private DatagramSocket socket;
+	private PipelinedTransport transport;
+	private volatile RateLimiter rateLimiter;
 	private InetAddress bridgeIp;
 	private Integer port;
 	private int timeout;
 	private byte sequentialByte;
-	private byte wifiBridgeSessionID1;
-	private byte wifiBridgeSessionID2;
+	// wifiBridgeSessionID1 in the second and wifiBridgeSessionID2 in the lowest byte, so a new session replaces both ids at once
+	private volatile int sessionIDs;
+	private volatile long sessionStarted;
+	private SessionManager sessionManager;
+	// Guards the socket in blocking mode, so keep alive messages and commands from different threads do not receive each others answers
+	private final Object socketLock = new Object();
+	// Guards sending commands, so only one thread at a time uses the packet templates, the sequential byte and the shadow state
+	private final Object commandLock = new Object();
+	// Guards starting new sessions
+	private final Object sessionLock = new Object();
 	private final byte remoteStyle = 0x07;
 
+	// Pre-templated packets, one per command number. Only session ids, sequential byte, value, zone and checksum are patched before sending.
+	private final byte[][] packets = new byte[14][];
+	private final byte[] keepAlivePacket = new byte[]{(byte) 0xD0, 0x00, 0x00, 0x00, 0x02, 0x00, 0x00};
+	private static final byte[] sessionRequestPacket = new byte[]{
+			(byte) 0x20, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x16, (byte) 0x02, (byte) 0x62, (byte) 0x3A, (byte) 0xD5, (byte) 0xED, (byte) 0xA3, (byte) 0x01, (byte) 0xAE,
+			(byte) 0x08, (byte) 0x2D, (byte) 0x46, (byte) 0x61, (byte) 0x41, (byte) 0xA7, (byte) 0xF6, (byte) 0xDC, (byte) 0xAF, (byte) 0x0, (byte) 0x0, (byte) 0x00, (byte) 0x00, (byte) 0x1E
+	};
+
+	// Reused for every message send in blocking mode
+	private final byte[] receiveBuffer = new byte[32];
+	private DatagramPacket sendPacket;
+	private DatagramPacket receivePacket;
+
+	// Number of messages the bridge did not answer in blocking mode, and how many of them where commands
+	private volatile long timeouts = 0;
+	private volatile long commandTimeouts = 0;
+	// Smoothed time until the bridge acknowledged a command in blocking mode
+	private volatile long roundTripNanos = 0;
+
+	// Commands rejected because of a dead session in blocking mode, send again once the session manager renewed the session
+	private final LinkedBlockingQueue<byte[]> rejectedCommands = new LinkedBlockingQueue<>(256);
+	// True while rejected pipelined commands are recovered in the background
+	private final AtomicBoolean recovering = new AtomicBoolean(false);
+
+	// Packets are recorded in the wire trace instead of being printed
+	private final WireTrace trace = WireTrace.getShared();
+	private final int traceAddress;
+
+	// Last state of each zone, commands that would not change it are skipped
+	private final ShadowState shadow = new ShadowState();
+	private final LightController forced = new ForcedCommands();
+	// Pipelined commands which were not acknowledged when the shadow state was last checked
+	private long shadowTimeouts = 0;
+
 	// Restart the session in case it dies.
 	private boolean automaticallyRestartSession = true;
 
@@ -48,7 +97,8 @@ public class Bridge {
 	 * @param	ip		Bridge ip
 	 * @param	port	port of the Bridge
 	 * @param	keepAlive keep the session alive? default: false
-	 * 					Starts a new Thread that keeps the session alive by sending a Message every 5 seconds. This message does not affect the lights.
+	 * 					Registers the bridge at the shared {@link SessionManager}, which keeps the session alive by sending a Message every 5 seconds
+	 * 					and renews the session in the background. This message does not affect the lights.
 	 * 					Note: The session will also automatically be restarted if it is lost, so keepAlive is not required.
 	 * @param	timeout	timeout in milliseconds for receiving answers from the bridge
 	 *
@@ -71,7 +121,8 @@ public class Bridge {
 	 * @param	ip		Bridge ip
 	 * @param	port	port of the Bridge
 	 * @param	keepAlive keep the session alive? default: false
-	 *                 	Starts a new Thread that keeps the session alive by sending a message every 5 seconds. This message does not affect the lights.
+	 *                 	Registers the bridge at the shared {@link SessionManager}, which keeps the session alive by sending a message every 5 seconds
+	 *                 	and renews the session in the background. This message does not affect the lights.
 	 *                 	Note: The session will also automatically be restarted if it is lost, so keepAlive is not required.
 	 * @param	timeout	timeout in milliseconds for receiving answers from the bridge. A timeout of zero is interpreted as an infinite timeout.
 	 *
@@ -87,18 +138,63 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public Bridge (InetAddress ip, Integer port, Boolean keepAlive, int timeout) throws BridgeException, IOException {
+		this(ip, port, keepAlive, timeout, 0);
+	}
+
+	/**
+	 * @param	ip		Bridge ip
+	 * @param	port	port of the Bridge
+	 * @param	keepAlive keep the session alive? default: false
+	 *                 	Registers the bridge at the shared {@link SessionManager}, which keeps the session alive by sending a message every 5 seconds
+	 *                 	and renews the session in the background. This message does not affect the lights.
+	 *                 	Note: The session will also automatically be restarted if it is lost, so keepAlive is not required.
+	 * @param	timeout	timeout in milliseconds for receiving answers from the bridge. A timeout of zero is interpreted as an infinite timeout.
+	 *                  If commands are pipelined, a timeout of zero is replaced with 250 milliseconds.
+	 * @param	maxInFlight maximum number of commands that can be send without waiting for the acknowledgement of the bridge.
+	 *                  If this is lower than 1, every command waits for the answer of the bridge before returning (blocking mode).
+	 *                  Otherwise commands are pipelined using a non-blocking {@link PipelinedTransport}.
+	 *
+	 * @throws	BridgeException
+	 * 			If {@code maxAttempts} is reached and the session is still not alive, a BridgeException is thrown.
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 * @throws	PortUnreachableException
+	 * 			may be thrown if bridge is currently unreachable. Note, there is no
+	 * 			guarantee that the exception will be thrown.
+	 * @throws	SecurityException
+	 * 			if a security manager exists and its {@code checkMulticast}
+	 * 			or {@code checkConnect} method doesn't allow the send.
+	 */
+	public Bridge (InetAddress ip, Integer port, Boolean keepAlive, int timeout, int maxInFlight) throws BridgeException, IOException {
 		System.out.println("Initializing Bridge at " + ip + ":" + port);
 		this.port = port;
 		this.sequentialByte = 1;
 		this.bridgeIp = ip;
 		this.timeout = timeout;
+		this.traceAddress = WireTrace.toAddress(ip);
+
+		for (int commandNr = 1; commandNr < packets.length; commandNr++) {
+			packets[commandNr] = createTemplate(commandNr);
+		}
+		sendPacket = new DatagramPacket(keepAlivePacket, keepAlivePacket.length, bridgeIp, port);
+		receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+
+		if (maxInFlight > 0) {
+			transport = new PipelinedTransport(ip, port, maxInFlight, timeout);
+			transport.setRejectionListener(this::recoverRejected);
+		}
 
-		// start the session
-		startNewSession(10);
+		// start the session, the transport and the socket are not used if the bridge can not be reached
+		try {
+			startNewSession(10, false);
+		} catch (BridgeException | IOException e) {
+			close();
+			throw e;
+		}
 
-		// sends a keep alive message every 5 seconds
+		// sends a keep alive message every 5 seconds and renews the session in the background
 		if (keepAlive) {
-			startKeepAliveThread();
+			SessionManager.getShared().register(this);
 		}
 
 		System.out.println("#################################\nBridge created" + this.toString() + "\n#################################");
@@ -119,8 +215,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void turnOn (Zone zone) throws IOException {
-		System.out.println("\nTurn " + zone + " zone/s on");
-		sendData(createData(1,zone.gebByte()));
+		sendCommand(1, zone, (byte) 0);
 	}
 
 	/**
@@ -138,8 +233,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void turnOff (Zone zone) throws IOException {
-		System.out.println("\nTurn " + zone + " zone/s off");
-		sendData(createData(2,zone.gebByte()));
+		sendCommand(2, zone, (byte) 0);
 	}
 
 	//TODO nightLight does not yet work
@@ -158,8 +252,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void nightLight (Zone zone) throws IOException {
-		System.out.println("\nTurn night light for " + zone + " zone/s on");
-		sendData(createData(3,zone.gebByte()));
+		sendCommand(3, zone, (byte) 0);
 	}
 
 	/**
@@ -177,8 +270,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void turnOnWhiteLight (Zone zone) throws IOException {
-		System.out.println("\nTurning on white light in zone  " + zone);
-		sendData(createData(4,zone.gebByte()));
+		sendCommand(4, zone, (byte) 0);
 	}
 
 	/**
@@ -197,8 +289,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColor (Zone zone, byte color) throws IOException {
-		System.out.println("\nSet color in " + zone + " to " + bytesToHexString(color));
-		sendData(createData(5,zone.gebByte(), color));
+		sendCommand(5, zone, color);
 	}
 
 	/**
@@ -216,8 +307,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToBlue (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to blue");
-		sendData(createData(5,zone.gebByte(),(byte) 0xBA));
+		sendCommand(5, zone, (byte) 0xBA);
 	}
 
 	/**
@@ -235,8 +325,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToRed (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to red");
-		sendData(createData(5,zone.gebByte(),(byte) 0x1C));
+		sendCommand(5, zone, (byte) 0x1C);
 	}
 
 	/**
@@ -254,8 +343,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToLavender (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to lavender");
-		sendData(createData(5,zone.gebByte(),(byte) 0xD9));
+		sendCommand(5, zone, (byte) 0xD9);
 	}
 
 	/**
@@ -273,8 +361,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToAqua (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to aqua");
-		sendData(createData(5,zone.gebByte(),(byte) 0x85));
+		sendCommand(5, zone, (byte) 0x85);
 	}
 
 	/**
@@ -292,8 +379,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToGreen (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to green");
-		sendData(createData(5,zone.gebByte(),(byte) 0x7A));
+		sendCommand(5, zone, (byte) 0x7A);
 	}
 
 	/**
@@ -311,8 +397,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToLime (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to lime");
-		sendData(createData(5,zone.gebByte(),(byte) 0x54));
+		sendCommand(5, zone, (byte) 0x54);
 	}
 
 	/**
@@ -330,8 +415,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToYellow (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to yellow");
-		sendData(createData(5,zone.gebByte(),(byte) 0x3B));
+		sendCommand(5, zone, (byte) 0x3B);
 	}
 
 	/**
@@ -349,8 +433,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setColorToOrange (Zone zone) throws IOException {
-		System.out.println("\nSet color in " + zone + " to orange");
-		sendData(createData(5,zone.gebByte(),(byte) 0x25));
+		sendCommand(5, zone, (byte) 0x25);
 	}
 
 	//TODO setSaturation does not yet work
@@ -370,8 +453,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setSaturation (Zone zone, int saturation) throws IOException {
-		System.out.println("\nSet saturation in " + zone + " to " + (int) convertPercentage(saturation) + "%");
-		sendData(createData(6, zone.gebByte(), convertPercentage(saturation)));
+		sendCommand(6, zone, convertPercentage(saturation));
 	}
 
 	/**
@@ -390,8 +472,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setBrightness (Zone zone, int brightness) throws IOException {
-		System.out.println("\nSet brightness in " + zone + " to " + (int) convertPercentage(brightness) + "%");
-		sendData(createData(7, zone.gebByte(), convertPercentage(brightness)));
+		sendCommand(7, zone, convertPercentage(brightness));
 	}
 
 	/**
@@ -415,8 +496,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setKelvin (Zone zone, int kelvin) throws IOException {
-		System.out.println("\nSet kelvin in " + zone + " to " + convertPercentage(kelvin) + "%");
-		sendData(createData(8, zone.gebByte(), convertPercentage(kelvin)));
+		sendCommand(8, zone, convertPercentage(kelvin));
 	}
 
 	/**
@@ -436,8 +516,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setMode (Zone zone, Mode mode) throws IOException {
-		System.out.println("\nSet mode in " + zone + " to mode  " + mode);
-		sendData(createData(9,zone.gebByte(), mode.gebByte()));
+		sendCommand(9, zone, mode.gebByte());
 	}
 
 	/**
@@ -457,8 +536,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void setMode (Zone zone, int modeNr) throws IOException {
-		System.out.println("\nSet mode in " + zone + " to mode nr " + modeNr);
-		sendData(createData(9,zone.gebByte(),(byte) modeNr));
+		sendCommand(9, zone, (byte) modeNr);
 	}
 
 	/**
@@ -476,8 +554,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void increaseSpeed (Zone zone) throws IOException {
-		System.out.println("\nIncrease speed in " + zone);
-		sendData(createData(10,zone.gebByte()));
+		sendCommand(10, zone, (byte) 0);
 	}
 
 	/**
@@ -495,8 +572,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void decreaseSpeed (Zone zone) throws IOException {
-		System.out.println("\nDecrease speed in " + zone);
-		sendData(createData(11,zone.gebByte()));
+		sendCommand(11, zone, (byte) 0);
 	}
 
 	/**
@@ -516,8 +592,7 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void linkLightsToZone (Zone zone) throws IOException {
-		System.out.println("\nLinking Light to " + zone);
-		sendData(createData(12, zone.gebByte()));
+		sendCommand(12, zone, (byte) 0);
 	}
 	
 	/**
@@ -537,11 +612,67 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	public void unlinkLightsToZone (Zone zone) throws IOException {
-		System.out.println("\nUnlink Light from " + zone);
-		sendData(createData(13, zone.gebByte()));
+		sendCommand(13, zone, (byte) 0);
 	}
 
 
+	/**
+	 * Sends a command unless the shadow state shows that it would not change anything.
+	 *
+	 * @param commandNr command number, see {@link #createData(int, byte, byte)}
+	 * @param zone zone in which the command should be applied
+	 * @param value value for the command, 0 for commands without a value
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private void sendCommand (int commandNr, Zone zone, byte value) throws IOException {
+		sendCommand(commandNr, zone, value, false);
+	}
+
+	/**
+	 * Sends a command and updates the shadow state.
+	 * Blocking commands update the shadow state once the bridge acknowledged them. Pipelined commands update it when they are send,
+	 * the whole shadow state is forgotten if a pipelined command is not acknowledged.
+	 * Commands from different threads are send one after another.
+	 *
+	 * @param commandNr command number, see {@link #createData(int, byte, byte)}
+	 * @param zone zone in which the command should be applied
+	 * @param value value for the command, 0 for commands without a value
+	 * @param force true to send the command even if it would not change anything
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private void sendCommand (int commandNr, Zone zone, byte value, boolean force) throws IOException {
+		synchronized (commandLock) {
+			if (transport != null) {
+				long timedOut = transport.getTimedOut();
+				if (timedOut != shadowTimeouts) {
+					shadowTimeouts = timedOut;
+					shadow.invalidate();
+				}
+			}
+			if (!force && shadow.skip(commandNr, zone, value)) {
+				return;
+			}
+
+			byte[] received;
+			try {
+				received = sendData(createData(commandNr, zone.gebByte(), value));
+			} catch (IOException e) {
+				shadow.invalidate(commandNr, zone);
+				throw e;
+			}
+
+			if (transport != null || (received != null && received[0] == (byte) 0x88 && received[7] == 0)) {
+				shadow.update(commandNr, zone, value);
+			} else {
+				shadow.invalidate(commandNr, zone);
+			}
+		}
+	}
+
 	/**
 	 * Sends a keep alive message
 	 *
@@ -554,9 +685,128 @@ public class Bridge {
 	 * 			if a security manager exists and its {@code checkMulticast}
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
-	private void keepAlive () throws IOException {
+	private byte[] keepAlive () throws IOException {
 		System.out.println("~~ sending keep alive message");
-		sendData(new byte[]{(byte) 0xD0, 0x00, 0x00, 0x00, 0x02, wifiBridgeSessionID1, wifiBridgeSessionID2});
+		synchronized (keepAlivePacket) {
+			updateSessionIDs(keepAlivePacket);
+			return sendData(keepAlivePacket);
+		}
+	}
+
+	/**
+	 * Sends a keep alive message. Used by {@link SessionManager}.
+	 *
+	 * @return true if the bridge answered the keep alive message
+	 */
+	boolean ping() {
+		try {
+			return keepAlive() != null;
+		} catch (IOException e) {
+			System.out.println("Keep alive message to " + bridgeIp + " failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Starts a new session while commands continue to use the old one. The session ids are replaced once the bridge accepted the new session.
+	 * Commands that where rejected because of the old session are send again. Used by {@link SessionManager}.
+	 *
+	 * @return true if a new session was started
+	 */
+	boolean renewSession() {
+		try {
+			startNewSession(10, true);
+		} catch (BridgeException | IOException e) {
+			System.out.println("Failed to renew session of " + bridgeIp + ": " + e.getMessage());
+			return false;
+		}
+
+		try {
+			if (transport != null) {
+				resendRejected();
+			} else {
+				resendRejectedBlocking();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 * Called by the transport when the bridge rejected a pipelined command. Starts a new session if the current one is dead
+	 * and sends the rejected commands again, so they are not left waiting for the next command.
+	 * Runs on the threads of the {@link SessionManager}, since the receiver thread of the transport has to receive the answers.
+	 */
+	private void recoverRejected() {
+		if (!automaticallyRestartSession || !recovering.compareAndSet(false, true)) {
+			return;
+		}
+		SessionManager manager = sessionManager;
+		if (manager == null) {
+			manager = SessionManager.getShared();
+		}
+		boolean scheduled = manager.execute(() -> {
+			try {
+				synchronized (commandLock) {
+					if (transport.isSessionDead()) {
+						if (sessionManager != null) {
+							// The session manager resends the rejected commands after the renewal
+							sessionManager.renew(this);
+							return;
+						}
+						startNewSession(2, false);
+					}
+					resendRejected();
+				}
+			} catch (BridgeException | IOException e) {
+				System.out.println("Failed to send rejected commands to " + bridgeIp + " again: " + e.getMessage());
+				return;
+			} finally {
+				recovering.set(false);
+			}
+			// Commands rejected while recovering
+			if (transport.hasRejected() && !transport.isSessionDead()) {
+				recoverRejected();
+			}
+		});
+		if (!scheduled) {
+			recovering.set(false);
+		}
+	}
+
+	/**
+	 * Sends commands again which where rejected in blocking mode because of a dead session, using the current session.
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private void resendRejectedBlocking () throws IOException {
+		synchronized (commandLock) {
+			// Commands rejected again are queued again, they are send after the next renewal
+			for (int i = rejectedCommands.size(); i > 0; i--) {
+				byte[] rejected = rejectedCommands.poll();
+				if (rejected == null) {
+					break;
+				}
+				updateSessionIDs(rejected);
+				sendData(rejected);
+			}
+		}
+	}
+
+	/**
+	 * @param sessionManager session manager responsible for this bridge, null if sessions should be restarted by the sending thread
+	 */
+	void setSessionManager(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	/**
+	 * @return time in milliseconds since the current session was started
+	 */
+	public long getSessionAge() {
+		return (System.nanoTime() - sessionStarted) / 1000000;
 	}
 
 	/**
@@ -567,7 +817,7 @@ public class Bridge {
 	 * @param percentage integer percentage value between 0 and 100 (if above 100 or bellow 0 the value will be 100 or 0)
 	 * @return the given value as byte between 0x00 and 0x64
 	 */
-	private byte convertPercentage (int percentage) {
+	static byte convertPercentage (int percentage) {
 		if (100 < percentage) {
 			return 0x64;
 		} else if (percentage < 0) {
@@ -662,13 +912,41 @@ public class Bridge {
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
 	private byte[] sendData (byte[] data) throws IOException {
-		DatagramPacket sendPacket		= new DatagramPacket(data, data.length, bridgeIp, port);
-		DatagramPacket receivePacket	= new DatagramPacket(new byte[32],32);
+		if (transport != null) {
+			return sendDataPipelined(data);
+		}
+
+		// Only commands are paced, session and keep alive messages are always send immediately
+		RateLimiter limiter = data[0] == (byte) 0x80 ? rateLimiter : null;
+		if (limiter != null) {
+			limiter.acquire();
+		}
+
+		synchronized (socketLock) {
+			return sendDataBlocking(data, limiter);
+		}
+	}
+
+	/**
+	 * Sends data to the bridge using the socket and waits for the answer. Must be called while holding {@code socketLock}.
+	 *
+	 * @param data data that will be send to the bridge
+	 * @param limiter rate limiter informed about the answer, may be null
+	 * @return received answer from the bridge. Null if timeout is reached
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private byte[] sendDataBlocking (byte[] data, RateLimiter limiter) throws IOException {
+		sendPacket.setData(data);
 
 		int attempts = 2;
+		// The answer is received into the shared buffer, which is overwritten if a new session is started
+		boolean rejected;
 		// Attempt to send data as long as the last response was not a session dead message and attempts > 0, while decreasing attempts each try.
 		do {
-			System.out.println("\nattempting to send: " + bytesToHexString(sendPacket.getData()));
+			long sentAt = System.nanoTime();
+			trace.record(WireTrace.SEND, traceAddress, sendPacket.getData(), sendPacket.getLength(), 0);
 
 			try {
 				socket.send(sendPacket);
@@ -680,25 +958,62 @@ public class Bridge {
 			}
 
 			try {
+				// receive() shrinks the length of the packet to the length of the last answer
+				receivePacket.setLength(receiveBuffer.length);
 				socket.receive(receivePacket);
 			} catch (SocketTimeoutException ignored) {
 				// Catch the SocketTimeoutException but pass the IOException to the caller
+				timeouts++;
+				if (data[0] == (byte) 0x80) {
+					commandTimeouts++;
+				}
+				trace.record(WireTrace.TIMEOUT, traceAddress, sendPacket.getData(), sendPacket.getLength(), System.nanoTime() - sentAt);
+				if (limiter != null) {
+					limiter.onLoss();
+				}
 				System.out.println("SocketTimeoutException: receiving a message failed. Timeout: " + socket.getSoTimeout());
 				return null;
 			} catch (IllegalBlockingModeException e) {
 				e.printStackTrace();
 			}
 
-			System.out.println("received data: " + bytesToHexString(receivePacket.getData()) + "\nwifiBridgeSessionID1: " + bytesToHexString(wifiBridgeSessionID1) + ", wifiBridgeSessionID2: " + bytesToHexString(wifiBridgeSessionID2) + "\n");
+			trace.record(WireTrace.RECEIVE, traceAddress, receivePacket.getData(), receivePacket.getLength(), System.nanoTime() - sentAt);
+			rejected = !sessionAlive(receivePacket.getData());
+			if (!rejected && data[0] == (byte) 0x80) {
+				long roundTrip = System.nanoTime() - sentAt;
+				roundTripNanos = roundTripNanos == 0 ? roundTrip : (7 * roundTripNanos + roundTrip) / 8;
+			}
+
+			if (limiter != null) {
+				if (!rejected) {
+					limiter.onAck(System.nanoTime() - sentAt);
+				} else {
+					limiter.onLoss();
+				}
+			}
 
 			// Check if the Session is still alive and restart the session if automaticallyRestartSession is enabled.
-			if (automaticallyRestartSession && !sessionAlive(receivePacket.getData())) {
+			if (automaticallyRestartSession && rejected) {
 				System.out.println("###\n\tBRIDGE NOT CONNECTED\n###");
 
+				if (sessionManager != null) {
+					// Do not wait for the new session, the session manager starts it in the background and sends the command again.
+					// Commands send with the ids of an older session do not mean the current session is dead.
+					if (data[0] == (byte) 0x80 && !rejectedCommands.offer(Arrays.copyOf(data, data.length))) {
+						System.out.println("Too many rejected commands for " + bridgeIp + ", dropping the command");
+					}
+					int current = sessionIDs;
+					if (data[5] == (byte) (current >> 8) && data[6] == (byte) current) {
+						sessionManager.renew(this);
+					}
+					break;
+				}
+
 				try {
-					startNewSession(2);
-					// update wifiBridgeSessionID1 & wifiBridgeSessionID2 in data
-					updateSessionIDs(sendPacket.getData());
+					startNewSession(2, false);
+					// update wifiBridgeSessionID1 & wifiBridgeSessionID2 in data. The session request replaced the data of sendPacket.
+					updateSessionIDs(data);
+					sendPacket.setData(data);
 				} catch (BridgeException e) {
 					// TODO: do not exit, better error handing required
 					e.printStackTrace();
@@ -707,19 +1022,82 @@ public class Bridge {
 			}
 
 			attempts--;
-		} while (automaticallyRestartSession && attempts > 0 && !sessionAlive(receivePacket.getData()));
+		} while (automaticallyRestartSession && attempts > 0 && rejected);
 
 		return receivePacket.getData();
 	}
 
+	/**
+	 * Sends data to the bridge using the {@link PipelinedTransport}.
+	 * Commands are send without waiting for the acknowledgement of the bridge, all other messages wait for an answer.
+	 * If the bridge reported a dead session for an earlier command, a new session is started and the rejected commands are send again.
+	 *
+	 * @param data data that will be send to the bridge
+	 * @return received answer from the bridge. Null if timeout is reached or {@code data} is a command
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private byte[] sendDataPipelined (byte[] data) throws IOException {
+		if (data[0] != (byte) 0x80) {
+			byte[] received = transport.exchange(data);
+			if (received == null) {
+				System.out.println("Timeout: receiving a message failed. Timeout: " + transport.getTimeout());
+			}
+			return received;
+		}
+
+		if (automaticallyRestartSession && transport.isSessionDead()) {
+			System.out.println("###\n\tBRIDGE NOT CONNECTED\n###");
+			if (sessionManager != null) {
+				// Do not wait for the new session, the session manager starts it in the background and resends rejected commands
+				sessionManager.renew(this);
+			} else {
+				try {
+					startNewSession(2, false);
+				} catch (BridgeException e) {
+					// The command is send with the rejected ones once a session was started
+					transport.reject(data);
+					throw new IOException("Could not start a new session with " + bridgeIp, e);
+				}
+				resendRejected();
+				// The command was created with the ids of the dead session
+				updateSessionIDs(data);
+			}
+		}
+
+		RateLimiter limiter = rateLimiter;
+		if (limiter != null) {
+			limiter.acquire();
+		}
+
+		transport.send(data);
+		return null;
+	}
+
+	/**
+	 * Sends commands again which where rejected by the bridge because of a dead session, using the current session.
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	private void resendRejected () throws IOException {
+		byte[] rejected;
+		while ((rejected = transport.pollRejected()) != null) {
+			updateSessionIDs(rejected);
+			transport.send(rejected);
+		}
+	}
+
 	/**
 	 * Updates wifiBridgeSessionID1 and wifiBridgeSessionID2 in a byte array with a command designated to the bridge.
 	 *
 	 * @param 	data byte array with a command designated to the bridge
 	 */
 	private void updateSessionIDs(byte[] data) {
-		data[5] = wifiBridgeSessionID1;
-		data[6] = wifiBridgeSessionID2;
+		int ids = sessionIDs;
+		data[5] = (byte) (ids >> 8);
+		data[6] = (byte) ids;
 	}
 
 	/**
@@ -768,40 +1146,6 @@ public class Bridge {
 		return received;
 	}
 
-	/**
-	 * simplified version of createData for commands that only require the commandNr and Zone.
-	 *
-	 * Creates a byte array that can be send to the Bridge
-	 *
-	 * @param commandNr see createCommand
-	 *                  1 = Light on
-	 *                  2 = Light off
-	 *                  3 = Night Light ON
-	 *                  4 = White Light ON (Color RGB OFF)
-	 *                  10 = increase mode speed
-	 *               	11 = decrease mode speed
-	 *             		12 = link light to bridge
-	 *              	13 = unlink light from bridge
-	 *
-	 * @param zone zone for the command
-	 *
-	 * @return byte array that can be send to the Bridge
-	 *
-	 * Commands that require an additional value:
-	 * 	- 5 : set color
-	 * 	- 6 : set saturation
-	 * 	- 7 : set brightens
-	 * 	- 8 : set Kelvin
-	 * 	- 9 : set Mode
-	 */
-	private byte[] createData(int commandNr, byte zone) {
-		// if the commandNr requires an additional value
-		if (commandNr == 5 || commandNr == 6 || commandNr == 7 || commandNr == 8 || commandNr == 9) {
-			System.err.println("\n ### WARNING ###\ncommandNr: " + commandNr + " requires an additional parameter!\n ### END WARNING ###");
-		}
-		return createData(commandNr, zone, (byte) 0);
-	}
-
 	/**
 	 *  Creates a byte array that can be send to the Bridge
 	 *
@@ -827,28 +1171,57 @@ public class Bridge {
 	 * @param value value used for the following commands: set color (5),
 	 * @return byte array that can be send to the Bridge
 	 */
-	private byte[] createData(int commandNr, byte zone, byte value) {
+	byte[] createData(int commandNr, byte zone, byte value) {
 		// format of command:
 		// 9 byte packet = 0x31 {PasswordByte1 default 00} {PasswordByte2 default 00} {remoteStyle 08 for RGBW/WW/CW or 00 for bridge lamp} {LightCommandByte1} {LightCommandByte2} 0x00 0x00 0x00 {Zone1-4 0=All} 0x00 {Checksum}
-		byte[] command = createCommand(commandNr, value);
+		// The packet is reused, only the variable bytes are updated.
+		byte[] data = packets[commandNr > 0 && commandNr < packets.length ? commandNr : 1];
 
-		byte[] data = new byte[]{
-				(byte) 0x80, 0x00, 0x00, 0x00, 0x11, wifiBridgeSessionID1, wifiBridgeSessionID2, 0x00, sequentialByte, 0x00,
-				command[0], command[1], command[2], command[3], command[4], command[5], command[6], command[7], command[8],
-				zone, 0x00, 0x00 //Last byte is placeholder for checksum
-		};
+		updateSessionIDs(data);
+		data[8] = sequentialByte;
+		switch (commandNr) {
+			case 5:
+				// set color uses the value 4 times
+				data[15] = value;
+				data[16] = value;
+				data[17] = value;
+				data[18] = value;
+				break;
+			case 6:
+			case 7:
+			case 8:
+			case 9:
+				data[15] = value;
+				break;
+		}
+		data[19] = zone;
 
 		sequentialByte++;
 
 		// insert checksum
 		// RGBW/WW/CW Checksum Byte Calculation is the sum of the 11 bytes before end of the UDP packet. The checksum is then added to the end of the UDP message.
 		// take the 9 bytes of the command, and 1 byte of the zone, and add the 0 = the checksum
-		byte checksum = calculateChecksum(Arrays.copyOfRange(data, 10,21));
-		data [21] = checksum;
+		data[21] = calculateChecksum(data, 10, 21);
 
 		return data;
 	}
 
+	/**
+	 * Creates the packet template for a command. Session ids, sequential byte, value, zone and checksum are filled in by {@link #createData(int, byte, byte)}.
+	 *
+	 * @param commandNr see createCommand
+	 * @return 22 byte packet template
+	 */
+	private byte[] createTemplate(int commandNr) {
+		byte[] command = createCommand(commandNr, (byte) 0);
+
+		return new byte[]{
+				(byte) 0x80, 0x00, 0x00, 0x00, 0x11, 0x00, 0x00, 0x00, 0x00, 0x00,
+				command[0], command[1], command[2], command[3], command[4], command[5], command[6], command[7], command[8],
+				0x00, 0x00, 0x00 //Last byte is placeholder for checksum
+		};
+	}
+
 	/**
 	 * Creates a 9 byte long command.
 	 *
@@ -871,7 +1244,7 @@ public class Bridge {
 	 *
 	 * @return 9 byte long command
 	 */
-	private byte[] createCommand(int commandNr, byte value) {
+	byte[] createCommand(int commandNr, byte value) {
 		switch (commandNr) {
 			case 1: {
 				// Light on
@@ -949,28 +1322,45 @@ public class Bridge {
 	 */
 	private boolean sessionAlive(byte[] data) {
 		return !(data[7] == 1 && data[0] == (byte) 0x88)
-				|| Arrays.equals(data, new byte[data.length]); // Response timeout, do nothing (return true). TODO inefficient
+				|| isEmpty(data); // Response timeout, do nothing (return true).
+	}
+
+	/**
+	 * @param data byte array
+	 * @return true if all bytes in {@code data} are 0
+	 */
+	private static boolean isEmpty(byte[] data) {
+		for (byte datum : data) {
+			if (datum != 0) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * Calculates the checksum for {@code data}
+	 * Calculates the checksum for the bytes between {@code from} (inclusive) and {@code to} (exclusive) in {@code data}
 	 *
 	 * @param data byte array
+	 * @param from index of the first byte
+	 * @param to index after the last byte
 	 * @return sum of 1's
 	 */
-	private static byte calculateChecksum(byte[] data) {
+	static byte calculateChecksum(byte[] data, int from, int to) {
 		byte checksum = 0;
-		for (byte datum : data) {
-			checksum += datum;
+		for (int i = from; i < to; i++) {
+			checksum += data[i];
 		}
 		return checksum;
 	}
 
 	/**
-	 * Starts a new Session and updates class variables wifiBridgeSessionID1 and wifiBridgeSessionID2.
-	 * Increases the response timeout temporarily
+	 * Starts a new Session and updates the session ids wifiBridgeSessionID1 and wifiBridgeSessionID2.
+	 * Increases the response timeout temporarily, unless the session is started in the background.
 	 *
 	 * @param maxAttempts max attempts to restart the session.
+	 * @param background true if commands continue to be send while the session is started.
+	 *                   The socket and its timeout are kept, so commands are not affected by the new session until it is established.
 	 *
 	 * @throws	BridgeException
 	 * 			If {@code maxAttempts} is reached and the session is still not alive, a BridgeException is thrown.
@@ -983,67 +1373,92 @@ public class Bridge {
 	 * 			if a security manager exists and its {@code checkMulticast}
 	 * 			or {@code checkConnect} method doesn't allow the send.
 	 */
-	private void startNewSession(int maxAttempts) throws BridgeException, IOException {
-		// Backup and disable automaticallyRestartSession to avoid a loop;
-		boolean autoRestBackup = automaticallyRestartSession;
-		automaticallyRestartSession = false;
+	private void startNewSession(int maxAttempts, boolean background) throws BridgeException, IOException {
+		synchronized (sessionLock) {
+			if (!background) {
+				setUpSessionTimeout();
+			}
 
-		// Replace socket to discard possible old packages in receive buffer.
-		try {
-			socket = new DatagramSocket();
-			socket.setSoTimeout(timeout);
-		} catch (SocketException e) {
-			e.printStackTrace();
-		}
+			System.out.println("\n## Starting a new session ##");
+			// Get wifiBridgeSessionID1 and wifiBridgeSessionID2
+			byte[] received = null;
+
+			// Attempt to get a new session. If the response begins with 0x28 the bridge accepted the request.
+			for (int i = 0; i < maxAttempts && (received == null || received[0] != (byte) 0x28); i++) {
+				received = sendDataRetry(sessionRequestPacket, 10, 250);
+
+				// Wait before the next attempt, if another attempt is required
+				if (received == null || received[0] != (byte) 0x28) {
+					try {
+						Thread.sleep(250);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+						break;
+					}
+				}
+			}
 
-		// increase response timeout
-		if (timeout > 0) {
-			try {
-				socket.setSoTimeout(timeout * 4);
-			} catch (SocketException ignored) {
+			// Failed to connect to the bridge
+			if (received == null || received[0] != (byte) 0x28) {
+				resetTimeout();
+				throw new BridgeException("Could not start a new Session");
 			}
-		}
 
-		System.out.println("\n## Starting a new session ##");
-		// Get wifiBridgeSessionID1 and wifiBridgeSessionID2
-		byte[] received = null;
+			// The wifiBridgeSessionID1 is the 20th byte and the wifiBridgeSessionID2 is the 21th byte of response above
+			sessionIDs = ((received[19] & 0xFF) << 8) | (received[20] & 0xFF);
+			sessionStarted = System.nanoTime();
+			// The lights might have been changed by other remotes while the session was dead
+			shadow.invalidate();
 
-		// Attempt to get a new session. If the response begins with 0x28 the bridge accepted the request.
-		for (int i = 0; i < maxAttempts && (received == null || received[0] != (byte) 0x28); i++) {
-			received = sendDataRetry(new byte[]{
-					(byte) 0x20, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x16, (byte) 0x02, (byte) 0x62, (byte) 0x3A, (byte) 0xD5, (byte) 0xED, (byte) 0xA3, (byte) 0x01, (byte) 0xAE,
-					(byte) 0x08, (byte) 0x2D, (byte) 0x46, (byte) 0x61, (byte) 0x41, (byte) 0xA7, (byte) 0xF6, (byte) 0xDC, (byte) 0xAF, (byte) 0x0, (byte) 0x0, (byte) 0x00, (byte) 0x00, (byte) 0x1E
-			}, 10, 250);
+			// Debug output
+			System.out.println("bridge connected");
 
-			// Wait before the next attempt, if another attempt is required
-			if (received == null || received[0] != (byte) 0x28) {
-				try {
-					Thread.sleep(250);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-					break;
-				}
+			resetTimeout();
+			if (transport != null) {
+				transport.sessionRestarted(received[19], received[20]);
 			}
 		}
+	}
 
-		// Failed to connect to the bridge
-		if (received == null) {
-			throw new BridgeException("Could not start a new Session");
+	/**
+	 * Replaces the socket in blocking mode and increases the response timeout for starting a new session.
+	 */
+	private void setUpSessionTimeout() {
+		if (transport != null) {
+			// increase response timeout
+			transport.setTimeout(timeout * 4);
+			return;
 		}
 
-		// The wifiBridgeSessionID1 is the 20th byte of response above
-		wifiBridgeSessionID1 = received[19];
-		// The wifiBridgeSessionID2 is the 21th byte of response above
-		wifiBridgeSessionID2 = received[20];
-
-		// restore automaticallyRestartSession
-		automaticallyRestartSession = autoRestBackup;
+		synchronized (socketLock) {
+			// Replace socket to discard possible old packages in receive buffer.
+			try {
+				if (socket != null) {
+					socket.close();
+				}
+				socket = new DatagramSocket();
+				socket.setSoTimeout(timeout);
+			} catch (SocketException e) {
+				e.printStackTrace();
+			}
 
-		// Debug output
-		System.out.println("bridge connected");
+			// increase response timeout
+			if (timeout > 0) {
+				try {
+					socket.setSoTimeout(timeout * 4);
+				} catch (SocketException ignored) {
+				}
+			}
+		}
+	}
 
-		// reset the timeout
-		if(timeout > 0) {
+	/**
+	 * Resets the response timeout after a new session was started.
+	 */
+	private void resetTimeout() {
+		if (transport != null) {
+			transport.setTimeout(timeout);
+		} else if (timeout > 0) {
 			try {
 				socket.setSoTimeout(timeout);
 			} catch (SocketException ignored) {
@@ -1052,24 +1467,112 @@ public class Bridge {
 	}
 
 	/**
-	 * Starts a thread which periodically sends a message to the bridge to keep the session alive.
+	 * Closes the connection to the bridge. The bridge can not be used afterwards.
 	 */
-	private void startKeepAliveThread() {
-		new Thread(() -> {
-			while (true) {
-				try {
-					keepAlive();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-
-				try {
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+	public void close() {
+		if (sessionManager != null) {
+			sessionManager.unregister(this);
+		}
+		if (transport != null) {
+			try {
+				transport.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		}).start();
+		}
+		if (socket != null) {
+			socket.close();
+		}
+	}
+
+	/**
+	 * @return ip address of the bridge
+	 */
+	public InetAddress getIp() {
+		return bridgeIp;
+	}
+
+	/**
+	 * Sets a rate limiter which paces all commands send to this bridge and adapts its rate to the answers of the bridge.
+	 *
+	 * @param rateLimiter rate limiter to use, null disables rate limiting
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		if (transport != null) {
+			transport.setRateLimiter(rateLimiter);
+		}
+	}
+
+	/**
+	 * @return the rate limiter used by this bridge, null if rate limiting is disabled
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return number of messages which where not answered or acknowledged by the bridge within the timeout
+	 */
+	public long getTimeouts() {
+		return transport != null ? transport.getTimedOut() : timeouts;
+	}
+
+	/**
+	 * @return number of commands which where not acknowledged within the timeout. Unlike {@link #getTimeouts()} this does not include
+	 * 			keep alive and session messages, so it only changes with the commands send.
+	 */
+	@Override
+	public long getLostCommands() {
+		return transport != null ? transport.getTimedOut() : commandTimeouts;
+	}
+
+	/**
+	 * @return time in nanoseconds until the bridge acknowledged a command. Smoothed in blocking mode, the last acknowledgement if commands are pipelined.
+	 */
+	@Override
+	public long getDeliveryLatency() {
+		return transport != null ? transport.getLastRoundTripNanos() : roundTripNanos;
+	}
+
+	/**
+	 * @return maximum number of commands that can be send without waiting for the acknowledgement of the bridge. 0 if commands are not pipelined.
+	 */
+	public int getMaxInFlight() {
+		return transport != null ? transport.getWindowSize() : 0;
+	}
+
+	/**
+	 * @return number of commands currently waiting for their acknowledgement. Always 0 if commands are not pipelined.
+	 */
+	public int getInFlight() {
+		return transport != null ? transport.getInFlight() : 0;
+	}
+
+	/**
+	 * @return number of commands which where not send because they would not change the state of the lights
+	 */
+	public long getSkippedCommands() {
+		return shadow.getSkipped();
+	}
+
+	/**
+	 * Forgets the last known state of all zones, so the next command for every zone and state is send.
+	 * Should be called if the lights might have been changed by other means, e.g. another remote.
+	 */
+	public void invalidateShadowState() {
+		shadow.invalidate();
+	}
+
+	/**
+	 * Commands of the returned LightController are always send, even if the shadow state shows that they would not change anything.
+	 * Use it for commands of a user, since the lights might have been changed by another remote.
+	 *
+	 * @return LightController sending commands to this bridge without skipping any
+	 */
+	@Override
+	public LightController forced() {
+		return forced;
 	}
 
 	/**
@@ -1078,7 +1581,7 @@ public class Bridge {
 	 * @param bytes byte array
 	 * @return String of comma separated hex values
 	 */
-	private static String bytesToHexString(byte[] bytes) {
+	static String bytesToHexString(byte[] bytes) {
 		StringBuilder sb = new StringBuilder("[");
 		for (byte b : bytes) {
 			sb.append(String.format("%02X", b));
@@ -1104,8 +1607,73 @@ public class Bridge {
 		return  "\n-- Bridge Ip: " + this.bridgeIp +
 				"\n-- Bridge Port: " + this.port +
 				"\n-- sequentialByte: " + bytesToHexString(sequentialByte) +
-				"\n-- wifiBridgeSessionID1: " + bytesToHexString(wifiBridgeSessionID1) +
-				"\n-- wifiBridgeSessionID2: " + bytesToHexString(wifiBridgeSessionID2) +
+				"\n-- wifiBridgeSessionID1: " + bytesToHexString((byte) (sessionIDs >> 8)) +
+				"\n-- wifiBridgeSessionID2: " + bytesToHexString((byte) sessionIDs) +
 				"\n-- remote style: " + bytesToHexString(remoteStyle);
 	}
+
+	/**
+	 * Sends commands without skipping them, see {@link #forced()}
+	 */
+	private class ForcedCommands implements LightController {
+		@Override
+		public void turnOn(Zone zone) throws IOException {
+			sendCommand(1, zone, (byte) 0, true);
+		}
+
+		@Override
+		public void turnOff(Zone zone) throws IOException {
+			sendCommand(2, zone, (byte) 0, true);
+		}
+
+		@Override
+		public void nightLight(Zone zone) throws IOException {
+			sendCommand(3, zone, (byte) 0, true);
+		}
+
+		@Override
+		public void turnOnWhiteLight(Zone zone) throws IOException {
+			sendCommand(4, zone, (byte) 0, true);
+		}
+
+		@Override
+		public void setColor(Zone zone, byte color) throws IOException {
+			sendCommand(5, zone, color, true);
+		}
+
+		@Override
+		public void setSaturation(Zone zone, int saturation) throws IOException {
+			sendCommand(6, zone, convertPercentage(saturation), true);
+		}
+
+		@Override
+		public void setBrightness(Zone zone, int brightness) throws IOException {
+			sendCommand(7, zone, convertPercentage(brightness), true);
+		}
+
+		@Override
+		public void setKelvin(Zone zone, int kelvin) throws IOException {
+			sendCommand(8, zone, convertPercentage(kelvin), true);
+		}
+
+		@Override
+		public void setMode(Zone zone, Mode mode) throws IOException {
+			sendCommand(9, zone, mode.gebByte(), true);
+		}
+
+		@Override
+		public void setMode(Zone zone, int modeNr) throws IOException {
+			sendCommand(9, zone, (byte) modeNr, true);
+		}
+
+		@Override
+		public void increaseSpeed(Zone zone) throws IOException {
+			sendCommand(10, zone, (byte) 0, true);
+		}
+
+		@Override
+		public void decreaseSpeed(Zone zone) throws IOException {
+			sendCommand(11, zone, (byte) 0, true);
+		}
+	}
 }
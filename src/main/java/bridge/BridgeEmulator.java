@@ -0,0 +1,474 @@
+package bridge;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Emulates a MiLight WiFi Bridge version 6 on the local machine. Can be used to test and benchmark {@link Bridge} without a physical bridge.
+ * Supports the messages used by {@link Bridge}:
+ * - 0x20 session requests, answered with 0x28 and the session ids at byte 19 and 20
+ * - 0x80 commands, answered with a 0x88 acknowledgement. If the session ids do not match the current session, byte 7 of the acknowledgement is 1 (session dead).
+ * - 0xD0 keep alive messages, answered with 0xD8
+ * - discovery messages on the discovery port (48899 by default), answered with "ip,mac,HF-LPB100"
+ *
+ * Latency, packet loss, reordering and a maximum packet rate can be configured. All random decisions use a seeded {@link Random},
+ * so a run with the same seed and the same input is reproducible.
+ *
+ * Can be started standalone: {@code java bridge.BridgeEmulator [port] [latency in ms] [loss between 0 and 1]}
+ *
+ * @author Alexander Liebald
+ */
+public class BridgeEmulator {
+	private static final byte[] mac = new byte[]{(byte) 0xAC, (byte) 0xCF, 0x23, (byte) 0xF5, 0x7A, (byte) 0xD4};
+
+	private final DatagramSocket socket;
+	private DatagramSocket discoverySocket;
+	private final DelayQueue<Answer> answers = new DelayQueue<>();
+	private volatile boolean running = false;
+	private Random random = new Random(0);
+
+	// Fault injection
+	private volatile int latency = 0;
+	private volatile int jitter = 0;
+	private volatile double loss = 0.0d;
+	private volatile double reorder = 0.0d;
+	private volatile int maxPacketsPerSecond = 0;
+	private double tokens = 0;
+	private long lastRefill = System.nanoTime();
+
+	// Session
+	private volatile byte sessionID1 = 0x00;
+	private volatile byte sessionID2 = 0x00;
+	private volatile boolean sessionAlive = false;
+
+	// Statistics
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong invalidChecksums = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sessionsStarted = new AtomicLong();
+	private final AtomicLong keepAlives = new AtomicLong();
+
+	// Last command per zone, 9 byte command as send by the bridge
+	private final byte[][] lastCommand = new byte[Zone.values().length][9];
+
+	/**
+	 * Creates a new BridgeEmulator listening on the given port of the loopback address.
+	 * Discovery messages are not answered, use {@link #enableDiscovery(int)} for that.
+	 *
+	 * @param port port for commands. Use 0 to choose a free port, see {@link #getPort()}.
+	 * @throws SocketException if the socket could not be opened
+	 */
+	public BridgeEmulator(int port) throws SocketException {
+		socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * Answers discovery messages on the given port.
+	 * Must be called before {@link #start()}.
+	 *
+	 * @param port discovery port, 48899 is used by {@link Bridge#discoverBridges()}
+	 * @throws SocketException if the socket could not be opened
+	 */
+	public void enableDiscovery(int port) throws SocketException {
+		discoverySocket = new DatagramSocket(port);
+	}
+
+	/**
+	 * Starts the threads receiving and answering messages.
+	 */
+	public void start() {
+		running = true;
+		startThread(() -> receive(socket), "BridgeEmulator-receiver");
+		startThread(this::answer, "BridgeEmulator-sender");
+		if (discoverySocket != null) {
+			startThread(() -> receive(discoverySocket), "BridgeEmulator-discovery");
+		}
+		System.out.println("BridgeEmulator listening on " + socket.getLocalSocketAddress());
+	}
+
+	/**
+	 * Stops the emulator and closes its sockets.
+	 */
+	public void stop() {
+		running = false;
+		socket.close();
+		if (discoverySocket != null) {
+			discoverySocket.close();
+		}
+	}
+
+	private void startThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Receiver loop for one socket.
+	 */
+	private void receive(DatagramSocket from) {
+		byte[] buffer = new byte[64];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (running) {
+			try {
+				packet.setLength(buffer.length);
+				from.receive(packet);
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+			received.incrementAndGet();
+			handle(from, Arrays.copyOf(buffer, packet.getLength()), packet.getSocketAddress());
+		}
+	}
+
+	/**
+	 * Sender loop. Sends answers once their latency is over.
+	 */
+	private void answer() {
+		while (running) {
+			try {
+				Answer answer = answers.poll(100, TimeUnit.MILLISECONDS);
+				if (answer != null) {
+					answer.socket.send(new DatagramPacket(answer.data, answer.data.length, answer.address));
+				}
+			} catch (InterruptedException ignored) {
+				return;
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles a received message and queues the answer.
+	 *
+	 * @param from socket which received the message
+	 * @param data received message
+	 * @param address sender of the message
+	 */
+	private synchronized void handle(DatagramSocket from, byte[] data, SocketAddress address) {
+		if (isLost()) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		if (from == discoverySocket) {
+			String message = new String(data, StandardCharsets.UTF_8);
+			if (message.equals("HF-A11ASSISTHREAD")) {
+				String answer = socket.getLocalAddress().getHostAddress() + "," + macToString() + ",HF-LPB100";
+				queue(from, answer.getBytes(StandardCharsets.UTF_8), address);
+			}
+			return;
+		}
+
+		switch (data[0]) {
+			case (byte) 0x20: {
+				startSession();
+				queue(from, new byte[]{
+						0x28, 0x00, 0x00, 0x00, 0x11, 0x00, 0x02, mac[0], mac[1], mac[2], mac[3], mac[4], mac[5],
+						0x69, (byte) 0xF0, 0x3C, 0x23, 0x00, 0x01, sessionID1, sessionID2, 0x00
+				}, address);
+				break;
+			}
+			case (byte) 0x80: {
+				commands.incrementAndGet();
+				boolean valid = sessionAlive && data.length >= 22 && data[5] == sessionID1 && data[6] == sessionID2;
+				if (valid) {
+					if (data[21] != checksum(data)) {
+						invalidChecksums.incrementAndGet();
+					}
+					int zone = data[19];
+					if (zone >= 0 && zone < lastCommand.length) {
+						System.arraycopy(data, 10, lastCommand[zone], 0, 9);
+					}
+				} else {
+					rejected.incrementAndGet();
+				}
+				queue(from, new byte[]{(byte) 0x88, 0x00, 0x00, 0x00, 0x03, 0x00, data.length > 8 ? data[8] : 0, (byte) (valid ? 0x00 : 0x01)}, address);
+				break;
+			}
+			case (byte) 0xD0: {
+				keepAlives.incrementAndGet();
+				queue(from, new byte[]{(byte) 0xD8, 0x00, 0x00, 0x00, 0x07, mac[0], mac[1], mac[2], mac[3], mac[4], mac[5], 0x01}, address);
+				break;
+			}
+			default:
+				System.out.println("BridgeEmulator: unknown message " + Arrays.toString(data));
+		}
+	}
+
+	/**
+	 * Queues an answer, applying latency, jitter and reordering.
+	 */
+	private void queue(DatagramSocket from, byte[] data, SocketAddress address) {
+		long delay = latency;
+		if (jitter > 0) {
+			delay += random.nextInt(jitter + 1);
+		}
+		if (reorder > 0 && random.nextDouble() < reorder) {
+			// Hold the answer back, so it arrives after answers to later messages
+			delay += Math.max(latency, 1) * 2L + jitter;
+		}
+		answers.add(new Answer(from, data, address, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+	}
+
+	/**
+	 * Decides if a received message gets lost, either randomly or because the maximum packet rate is reached.
+	 */
+	private boolean isLost() {
+		if (loss > 0 && random.nextDouble() < loss) {
+			return true;
+		}
+		if (maxPacketsPerSecond > 0) {
+			long now = System.nanoTime();
+			tokens = Math.min(maxPacketsPerSecond, tokens + (now - lastRefill) / 1e9 * maxPacketsPerSecond);
+			lastRefill = now;
+			if (tokens < 1) {
+				return true;
+			}
+			tokens--;
+		}
+		return false;
+	}
+
+	/**
+	 * Starts a new session with new session ids.
+	 */
+	private void startSession() {
+		sessionID1 = (byte) (random.nextInt(255) + 1);
+		sessionID2 = (byte) random.nextInt(256);
+		sessionAlive = true;
+		sessionsStarted.incrementAndGet();
+	}
+
+	/**
+	 * Kills the current session. Every following command is answered with a session dead acknowledgement until a new session is started.
+	 */
+	public void expireSession() {
+		sessionAlive = false;
+	}
+
+	private static byte checksum(byte[] data) {
+		byte checksum = 0;
+		for (int i = 10; i < 21; i++) {
+			checksum += data[i];
+		}
+		return checksum;
+	}
+
+	private static String macToString() {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : mac) {
+			sb.append(String.format("%02X", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return port on which commands are received
+	 */
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * @return address on which commands are received
+	 */
+	public InetAddress getAddress() {
+		return socket.getLocalAddress();
+	}
+
+	/**
+	 * @param latency latency in milliseconds added to every answer
+	 */
+	public void setLatency(int latency) {
+		this.latency = Math.max(0, latency);
+	}
+
+	/**
+	 * @param jitter maximum random latency in milliseconds added on top of the latency
+	 */
+	public void setJitter(int jitter) {
+		this.jitter = Math.max(0, jitter);
+	}
+
+	/**
+	 * @param loss probability between 0 and 1 that a received message is dropped without answer
+	 */
+	public void setLoss(double loss) {
+		this.loss = loss;
+	}
+
+	/**
+	 * @param reorder probability between 0 and 1 that an answer is held back and arrives after answers to later messages
+	 */
+	public void setReorder(double reorder) {
+		this.reorder = reorder;
+	}
+
+	/**
+	 * @param maxPacketsPerSecond maximum number of received messages per second, additional messages are dropped. 0 disables the limit.
+	 */
+	public synchronized void setMaxPacketsPerSecond(int maxPacketsPerSecond) {
+		this.maxPacketsPerSecond = Math.max(0, maxPacketsPerSecond);
+		this.tokens = this.maxPacketsPerSecond;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * @param seed seed for loss, jitter, reordering and session ids
+	 */
+	public synchronized void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * @return number of received messages, including lost ones
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+
+	/**
+	 * @return number of received commands (0x80)
+	 */
+	public long getCommands() {
+		return commands.get();
+	}
+
+	/**
+	 * @return number of commands answered with a session dead acknowledgement
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of commands with a wrong checksum
+	 */
+	public long getInvalidChecksums() {
+		return invalidChecksums.get();
+	}
+
+	/**
+	 * @return number of messages dropped because of loss or the maximum packet rate
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of started sessions
+	 */
+	public long getSessionsStarted() {
+		return sessionsStarted.get();
+	}
+
+	/**
+	 * @return number of received keep alive messages
+	 */
+	public long getKeepAlives() {
+		return keepAlives.get();
+	}
+
+	/**
+	 * @param zone zone
+	 * @return copy of the last 9 byte command accepted for {@code zone}
+	 */
+	public synchronized byte[] getLastCommand(Zone zone) {
+		return Arrays.copyOf(lastCommand[zone.gebByte()], 9);
+	}
+
+	/**
+	 * Starts an emulator.
+	 * Arguments: [port, default 5987] [latency in ms, default 0] [loss between 0 and 1, default 0]
+	 */
+	public static void main(String[] args) throws IOException {
+		BridgeEmulator emulator = new BridgeEmulator(args.length > 0 ? Integer.parseInt(args[0]) : 5987);
+		if (args.length > 1) {
+			emulator.setLatency(Integer.parseInt(args[1]));
+		}
+		if (args.length > 2) {
+			emulator.setLoss(Double.parseDouble(args[2]));
+		}
+		try {
+			emulator.enableDiscovery(48899);
+		} catch (SocketException e) {
+			System.out.println("Discovery port 48899 is not available, discovery messages will not be answered");
+		}
+		emulator.start();
+
+		while (true) {
+			try {
+				Thread.sleep(5000);
+			} catch (InterruptedException ignored) {
+				break;
+			}
+			System.out.println("BridgeEmulator: received " + emulator.getReceived() + ", commands " + emulator.getCommands()
+					+ ", rejected " + emulator.getRejected() + ", dropped " + emulator.getDropped() + ", sessions " + emulator.getSessionsStarted());
+		}
+		emulator.stop();
+	}
+
+	/**
+	 * An answer waiting for its latency to pass
+	 */
+	private static class Answer implements Delayed {
+		private final DatagramSocket socket;
+		private final byte[] data;
+		private final SocketAddress address;
+		private final long due;
+
+		private Answer(DatagramSocket socket, byte[] data, SocketAddress address, long due) {
+			this.socket = socket;
+			this.data = data;
+			this.address = address;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(due, ((Answer) o).due);
+		}
+	}
+}
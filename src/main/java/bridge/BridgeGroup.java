@@ -0,0 +1,449 @@
+package bridge;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Controls multiple bridges as if they where one.
+ * Every command is handed to all bridges at the same time. Each bridge has its own thread, so the commands for all bridges are
+ * send in parallel and a slow or dead bridge does not delay the others. The order of the commands is kept per bridge.
+ *
+ * If more than {@code maxBacklog} commands are waiting for a bridge, new commands for this bridge are held back until its backlog is empty.
+ * Commands that change a state (e.g. the color of a zone) replace held back commands of the same type for the same zone,
+ * so the bridge catches up with the newest state. Commands without a state (speed) are dropped and counted as failures while commands
+ * are held back, they would otherwise overtake them.
+ *
+ * Bridges can be added while commands are send, e.g. once they are connected. Their lights missed all earlier commands,
+ * which is reported by {@link #getLostCommands()}.
+ *
+ * @author Alexander Liebald
+ */
+public class BridgeGroup implements LightController {
+	private final List<Member> members = new CopyOnWriteArrayList<>();
+	private final int maxBacklog;
+	private final LightController forced = new ForcedCommands();
+	// Number of bridges added after the group was created
+	private volatile long added = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param bridges bridges in this group
+	 * @param maxBacklog maximum number of commands waiting for a single bridge. Values lower than 1 are treated as 1.
+	 */
+	public BridgeGroup(List<Bridge> bridges, int maxBacklog) {
+		this.maxBacklog = Math.max(1, maxBacklog);
+		for (Bridge bridge : bridges) {
+			members.add(new Member(bridge));
+		}
+	}
+
+	/**
+	 * Creates a new BridgeGroup with a backlog of 16 commands per bridge.
+	 *
+	 * @param bridges bridges in this group
+	 */
+	public BridgeGroup(List<Bridge> bridges) {
+		this(bridges, 16);
+	}
+
+	@Override
+	public void turnOn(Zone zone) {
+		fanOut(1, zone, bridge -> bridge.turnOn(zone));
+	}
+
+	@Override
+	public void turnOff(Zone zone) {
+		fanOut(2, zone, bridge -> bridge.turnOff(zone));
+	}
+
+	@Override
+	public void nightLight(Zone zone) {
+		fanOut(3, zone, bridge -> bridge.nightLight(zone));
+	}
+
+	@Override
+	public void turnOnWhiteLight(Zone zone) {
+		fanOut(4, zone, bridge -> bridge.turnOnWhiteLight(zone));
+	}
+
+	@Override
+	public void setColor(Zone zone, byte color) {
+		fanOut(5, zone, bridge -> bridge.setColor(zone, color));
+	}
+
+	@Override
+	public void setSaturation(Zone zone, int saturation) {
+		fanOut(6, zone, bridge -> bridge.setSaturation(zone, saturation));
+	}
+
+	@Override
+	public void setBrightness(Zone zone, int brightness) {
+		fanOut(7, zone, bridge -> bridge.setBrightness(zone, brightness));
+	}
+
+	@Override
+	public void setKelvin(Zone zone, int kelvin) {
+		fanOut(8, zone, bridge -> bridge.setKelvin(zone, kelvin));
+	}
+
+	@Override
+	public void setMode(Zone zone, Mode mode) {
+		fanOut(9, zone, bridge -> bridge.setMode(zone, mode));
+	}
+
+	@Override
+	public void setMode(Zone zone, int modeNr) {
+		fanOut(9, zone, bridge -> bridge.setMode(zone, modeNr));
+	}
+
+	@Override
+	public void increaseSpeed(Zone zone) {
+		fanOut(10, zone, bridge -> bridge.increaseSpeed(zone));
+	}
+
+	@Override
+	public void decreaseSpeed(Zone zone) {
+		fanOut(11, zone, bridge -> bridge.decreaseSpeed(zone));
+	}
+
+	/**
+	 * @return LightController sending commands to all bridges without skipping any, see {@link Bridge#forced()}
+	 */
+	@Override
+	public LightController forced() {
+		return forced;
+	}
+
+	/**
+	 * Hands a command to every bridge in this group without waiting for any of them.
+	 *
+	 * @param commandNr command number, see {@link Bridge#createData(int, byte, byte)}
+	 * @param zone zone of the command
+	 * @param command command to apply
+	 */
+	private void fanOut(int commandNr, Zone zone, Command command) {
+		for (Member member : members) {
+			member.submit(commandNr, zone, command);
+		}
+	}
+
+	/**
+	 * Adds a bridge to this group. It receives all commands handed to the group from now on.
+	 *
+	 * @param bridge connected bridge
+	 * @return false if the group is closed already, the bridge is not added in this case
+	 */
+	public synchronized boolean add(Bridge bridge) {
+		if (closed) {
+			return false;
+		}
+		members.add(new Member(bridge));
+		added++;
+		return true;
+	}
+
+	/**
+	 * @return all bridges in this group, including their statistics
+	 */
+	public List<Member> getMembers() {
+		return Collections.unmodifiableList(members);
+	}
+
+	/**
+	 * @return number of commands that failed or where dropped for any bridge, plus the commands the bridges did not acknowledge.
+	 * 			Every bridge added later counts as one lost command, since it missed the earlier commands.
+	 */
+	@Override
+	public long getLostCommands() {
+		long lost = added;
+		for (Member member : members) {
+			lost += member.getFailures() + member.bridge.getLostCommands();
+		}
+		return lost;
+	}
+
+	/**
+	 * @return delivery latency of the slowest bridge in nanoseconds, see {@link Bridge#getDeliveryLatency()}
+	 */
+	@Override
+	public long getDeliveryLatency() {
+		long latency = 0;
+		for (Member member : members) {
+			latency = Math.max(latency, member.bridge.getDeliveryLatency());
+		}
+		return latency;
+	}
+
+	/**
+	 * Stops the threads of all bridges and closes the bridges. Waiting commands are discarded.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		for (Member member : members) {
+			member.executor.shutdownNow();
+			member.bridge.close();
+		}
+	}
+
+	/**
+	 * Hands commands to all bridges without skipping them, see {@link #forced()}
+	 */
+	private class ForcedCommands implements LightController {
+		@Override
+		public void turnOn(Zone zone) {
+			fanOut(1, zone, bridge -> bridge.forced().turnOn(zone));
+		}
+
+		@Override
+		public void turnOff(Zone zone) {
+			fanOut(2, zone, bridge -> bridge.forced().turnOff(zone));
+		}
+
+		@Override
+		public void nightLight(Zone zone) {
+			fanOut(3, zone, bridge -> bridge.forced().nightLight(zone));
+		}
+
+		@Override
+		public void turnOnWhiteLight(Zone zone) {
+			fanOut(4, zone, bridge -> bridge.forced().turnOnWhiteLight(zone));
+		}
+
+		@Override
+		public void setColor(Zone zone, byte color) {
+			fanOut(5, zone, bridge -> bridge.forced().setColor(zone, color));
+		}
+
+		@Override
+		public void setSaturation(Zone zone, int saturation) {
+			fanOut(6, zone, bridge -> bridge.forced().setSaturation(zone, saturation));
+		}
+
+		@Override
+		public void setBrightness(Zone zone, int brightness) {
+			fanOut(7, zone, bridge -> bridge.forced().setBrightness(zone, brightness));
+		}
+
+		@Override
+		public void setKelvin(Zone zone, int kelvin) {
+			fanOut(8, zone, bridge -> bridge.forced().setKelvin(zone, kelvin));
+		}
+
+		@Override
+		public void setMode(Zone zone, Mode mode) {
+			fanOut(9, zone, bridge -> bridge.forced().setMode(zone, mode));
+		}
+
+		@Override
+		public void setMode(Zone zone, int modeNr) {
+			fanOut(9, zone, bridge -> bridge.forced().setMode(zone, modeNr));
+		}
+
+		@Override
+		public void increaseSpeed(Zone zone) {
+			fanOut(10, zone, bridge -> bridge.forced().increaseSpeed(zone));
+		}
+
+		@Override
+		public void decreaseSpeed(Zone zone) {
+			fanOut(11, zone, bridge -> bridge.forced().decreaseSpeed(zone));
+		}
+	}
+
+	/**
+	 * A command applied to a single bridge
+	 */
+	private interface Command {
+		void apply(Bridge bridge) throws IOException;
+	}
+
+	/**
+	 * A bridge in a BridgeGroup together with its own thread and statistics.
+	 */
+	public class Member {
+		private final Bridge bridge;
+		private final ExecutorService executor;
+		private final AtomicInteger backlog = new AtomicInteger();
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong replaced = new AtomicLong();
+		// Held back state commands while the backlog is full, in the order they where submitted, indexed by zone and command type
+		private final LinkedHashMap<Integer, Command> heldBack = new LinkedHashMap<>();
+		private volatile long lastLatencyNanos = 0;
+		private volatile long maxLatencyNanos = 0;
+
+		private Member(Bridge bridge) {
+			this.bridge = bridge;
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "BridgeGroup-" + bridge.getIp().getHostAddress());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * Queues a command for this bridge. If the backlog is full or commands are held back already, state commands are held back
+		 * and stateless commands are dropped.
+		 */
+		private synchronized void submit(int commandNr, Zone zone, Command command) {
+			int type = CommandQueue.getType(commandNr);
+			boolean full = !heldBack.isEmpty() || backlog.get() >= maxBacklog;
+			if (type >= 0 && full) {
+				// Held back commands keep their order, newer commands have to wait behind them
+				if (zone == Zone.ALL) {
+					for (Zone single : Zone.values()) {
+						if (heldBack.remove(key(single, type)) != null) {
+							replaced.incrementAndGet();
+						}
+					}
+				} else if (heldBack.remove(key(zone, type)) != null) {
+					replaced.incrementAndGet();
+				}
+				heldBack.put(key(zone, type), command);
+				return;
+			}
+			if (full) {
+				// A stateless command must not overtake held back commands, e.g. speed up a mode which is not set yet
+				failures.incrementAndGet();
+				return;
+			}
+			execute(command);
+		}
+
+		private void execute(Command command) {
+			backlog.incrementAndGet();
+			try {
+				executor.execute(() -> apply(command));
+			} catch (RejectedExecutionException e) {
+				backlog.decrementAndGet();
+				failures.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Queues the held back commands once the backlog is empty.
+		 */
+		private synchronized void releaseHeldBack() {
+			if (heldBack.isEmpty() || backlog.get() > 0) {
+				return;
+			}
+			for (Command command : heldBack.values()) {
+				execute(command);
+			}
+			heldBack.clear();
+		}
+
+		private int key(Zone zone, int type) {
+			return zone.ordinal() * CommandQueue.NUMBER_OF_TYPES + type;
+		}
+
+		private void apply(Command command) {
+			long start = System.nanoTime();
+			// Unacknowledged commands are counted by the bridge, see getLostCommands()
+			long lostBefore = bridge.getLostCommands();
+			try {
+				command.apply(bridge);
+				if (bridge.getLostCommands() == lostBefore) {
+					sent.incrementAndGet();
+				}
+			} catch (IOException e) {
+				failures.incrementAndGet();
+				System.out.println("BridgeGroup: command for " + bridge.getIp() + " failed: " + e.getMessage());
+			} finally {
+				lastLatencyNanos = System.nanoTime() - start;
+				maxLatencyNanos = Math.max(maxLatencyNanos, lastLatencyNanos);
+				backlog.decrementAndGet();
+				releaseHeldBack();
+			}
+		}
+
+		/**
+		 * @return the bridge
+		 */
+		public Bridge getBridge() {
+			return bridge;
+		}
+
+		/**
+		 * @return number of commands waiting for this bridge
+		 */
+		public int getBacklog() {
+			return backlog.get();
+		}
+
+		/**
+		 * @return number of commands successfully send to this bridge
+		 */
+		public long getSent() {
+			return sent.get();
+		}
+
+		/**
+		 * @return number of held back commands which where replaced by a newer command for the same zone and type
+		 */
+		public long getReplaced() {
+			return replaced.get();
+		}
+
+		/**
+		 * @return number of commands waiting until the backlog is empty
+		 */
+		public synchronized int getHeldBack() {
+			return heldBack.size();
+		}
+
+		/**
+		 * @return number of commands that failed or where dropped because the backlog was full.
+		 * 			Commands that are not acknowledged are counted by {@link Bridge#getLostCommands()} instead.
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/**
+		 * @return time in milliseconds the last command took, including the answer of the bridge if commands are not pipelined
+		 */
+		public double getLastLatency() {
+			return lastLatencyNanos / 1e6;
+		}
+
+		/**
+		 * @return longest time in milliseconds a command took
+		 */
+		public double getMaxLatency() {
+			return maxLatencyNanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return bridge.getIp().getHostAddress() + ": sent=" + getSent() + ", skipped=" + bridge.getSkippedCommands() + ", failures=" + getFailures() + ", backlog=" + getBacklog() + ", heldBack=" + getHeldBack() + ", replaced=" + getReplaced()
+					+ ", lastLatency=" + getLastLatency() + "ms, maxLatency=" + getMaxLatency() + "ms";
+		}
+	}
+}
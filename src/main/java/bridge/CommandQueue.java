@@ -0,0 +1,784 @@
+package bridge;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Latest-wins dispatch queue for a {@link Bridge} or any other {@link LightController}, e.g. a {@link BridgeGroup}.
+ * Commands are queued and forwarded to the bridge by a separate dispatcher thread, so callers never wait for the bridge
+ * and the dispatcher is the only thread writing to the bridge.
+ * For every zone and command type at most one command is pending. If a new command replaces a pending one,
+ * the old value is discarded and the bridge only receives the newest state.
+ * Commands for {@link Zone#ALL} also replace pending commands of the same type for the single zones.
+ *
+ * Commands without a state (increase/decrease speed) are never coalesced and act as a barrier:
+ * commands queued after them do not replace commands queued before them.
+ *
+ * Commands queued using {@link #forced()} are forwarded to {@link LightController#forced()} of the target, so they are never skipped.
+ * A command replacing a forced command is forced as well.
+ *
+ * Before sending, pending commands are optimized by a {@link ZoneMerger}: commands for single zones are merged into
+ * commands for {@link Zone#ALL} where this saves packets, and sent in a fixed order. Callers submitting several commands
+ * which belong together (e.g. one color for every zone) should wrap them in {@link #beginBatch()} and {@link #endBatch()},
+ * so the dispatcher does not send the first commands before the others are queued.
+ *
+ * Commands are queued in one lane per {@link Priority}. The queue itself queues {@link Priority#STREAMING} commands,
+ * {@link #interactive()} queues {@link Priority#INTERACTIVE} commands. Interactive commands are always send first and
+ * replace pending streaming commands for the same zone and type. If more than {@code streamingCapacity} streaming commands
+ * are pending, the oldest one is dropped. A pending streaming command for {@link Zone#ALL} is split into commands for the other zones
+ * if an interactive command for a single zone arrives. Every lane counts its commands and the time they waited, see {@link Lane}.
+ *
+ * @author Alexander Liebald
+ */
+public class CommandQueue implements LightController {
+	// Command types that can be coalesced. Commands that change the same state share a type.
+	static final int POWER = 0;			// turn on, turn off, night light
+	static final int COLOR = 1;			// white light, set color
+	static final int SATURATION = 2;
+	static final int BRIGHTNESS = 3;
+	static final int KELVIN = 4;
+	static final int MODE = 5;
+	static final int NUMBER_OF_TYPES = 6;
+
+	private final LightController target;
+	// Lanes indexed by priority, the first lane has the highest priority
+	private final Lane[] lanes = new Lane[Priority.values().length];
+	private final Lane streaming;
+	private final Thread dispatcher;
+	// State of the zones after all forwarded commands, used to merge commands
+	private final ShadowState forwarded = new ShadowState();
+	private final ZoneMerger merger = new ZoneMerger(forwarded);
+	private volatile boolean running = true;
+	private int streamingCapacity;
+
+	private volatile long sent = 0;
+	private volatile long failed = 0;
+	private volatile long savedPackets = 0;
+	// Smoothed time streaming commands waited before they where forwarded
+	private volatile long streamingWaitNanos = 0;
+
+	/**
+	 * Creates a new CommandQueue and starts its dispatcher thread.
+	 *
+	 * @param target bridge or group of bridges which receives the commands
+	 * @param streamingCapacity maximum number of pending streaming commands. Values lower than 1 are treated as 1.
+	 */
+	public CommandQueue(LightController target, int streamingCapacity) {
+		this.target = target;
+		this.streamingCapacity = Math.max(1, streamingCapacity);
+		for (Priority priority : Priority.values()) {
+			lanes[priority.ordinal()] = new Lane(priority);
+		}
+		streaming = lanes[Priority.STREAMING.ordinal()];
+		dispatcher = new Thread(this::dispatch, "CommandQueue");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Creates a new CommandQueue with up to 64 pending streaming commands and starts its dispatcher thread.
+	 *
+	 * @param target bridge or group of bridges which receives the commands
+	 */
+	public CommandQueue(LightController target) {
+		this(target, 64);
+	}
+
+	@Override
+	public void turnOn(Zone zone) {
+		streaming.commands.turnOn(zone);
+	}
+
+	@Override
+	public void turnOff(Zone zone) {
+		streaming.commands.turnOff(zone);
+	}
+
+	@Override
+	public void nightLight(Zone zone) {
+		streaming.commands.nightLight(zone);
+	}
+
+	@Override
+	public void turnOnWhiteLight(Zone zone) {
+		streaming.commands.turnOnWhiteLight(zone);
+	}
+
+	@Override
+	public void setColor(Zone zone, byte color) {
+		streaming.commands.setColor(zone, color);
+	}
+
+	@Override
+	public void setSaturation(Zone zone, int saturation) {
+		streaming.commands.setSaturation(zone, saturation);
+	}
+
+	@Override
+	public void setBrightness(Zone zone, int brightness) {
+		streaming.commands.setBrightness(zone, brightness);
+	}
+
+	@Override
+	public void setKelvin(Zone zone, int kelvin) {
+		streaming.commands.setKelvin(zone, kelvin);
+	}
+
+	@Override
+	public void setMode(Zone zone, Mode mode) {
+		streaming.commands.setMode(zone, mode);
+	}
+
+	@Override
+	public void setMode(Zone zone, int modeNr) {
+		streaming.commands.setMode(zone, modeNr);
+	}
+
+	@Override
+	public void increaseSpeed(Zone zone) {
+		streaming.commands.increaseSpeed(zone);
+	}
+
+	@Override
+	public void decreaseSpeed(Zone zone) {
+		streaming.commands.decreaseSpeed(zone);
+	}
+
+	/**
+	 * @return LightController queueing streaming commands which are never skipped by the target, see {@link LightController#forced()}
+	 */
+	@Override
+	public LightController forced() {
+		return streaming.forced;
+	}
+
+	/**
+	 * @return LightController queueing commands in the interactive lane, which are send before all streaming commands.
+	 * 			Its {@link LightController#forced()} queues interactive commands which are never skipped by the target.
+	 */
+	public LightController interactive() {
+		return lanes[Priority.INTERACTIVE.ordinal()].commands;
+	}
+
+	/**
+	 * Holds back the streaming commands until {@link #endBatch()}, so all commands of the batch are optimized together.
+	 */
+	@Override
+	public void beginBatch() {
+		streaming.commands.beginBatch();
+	}
+
+	@Override
+	public void endBatch() {
+		streaming.commands.endBatch();
+	}
+
+	/**
+	 * Queues a command. Replaces the pending command with the same type for the same zone, if there is one.
+	 *
+	 * @param lane lane of the command
+	 * @param commandNr command number, see {@link #forward(PendingCommand)}
+	 * @param zone zone in which the command should be applied
+	 * @param value value for the command
+	 * @param force true if the target must not skip the command
+	 */
+	private synchronized void submit(Lane lane, int commandNr, Zone zone, byte value, boolean force) {
+		lane.submitted++;
+		PendingCommand command = new PendingCommand(commandNr, zone, value, force);
+		command.queuedAt = System.nanoTime();
+		int type = getType(commandNr);
+
+		if (type < 0) {
+			// Commands without a state can not be replaced and no command queued before them may be replaced anymore
+			lane.clearReplaceable();
+		} else {
+			lane.replace(command, zone, type);
+			if (lane != streaming) {
+				// Pending streaming commands would undo the interactive command
+				streaming.replace(null, zone, type);
+				if (zone != Zone.ALL) {
+					streaming.split(zone, type);
+				}
+			}
+			lane.replaceable[zone.ordinal()][type] = command;
+		}
+
+		lane.queue.add(command);
+		lane.optimized = false;
+		if (lane == streaming && lane.queue.size() > streamingCapacity) {
+			lane.drop();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Dispatcher loop. Sends queued commands to the bridge, one after another.
+	 */
+	private void dispatch() {
+		while (running) {
+			PendingCommand command;
+			Lane lane;
+			synchronized (this) {
+				while ((lane = nextLane()) == null && running) {
+					try {
+						wait();
+					} catch (InterruptedException ignored) {
+						return;
+					}
+				}
+				if (lane == null) {
+					continue;
+				}
+				if (!lane.optimized) {
+					merger.optimize(lane.queue);
+					lane.updateReplaceable();
+					lane.optimized = true;
+				}
+				command = lane.queue.poll();
+				if (command == null) {
+					continue;
+				}
+				int type = getType(command.commandNr);
+				if (type >= 0 && lane.replaceable[command.zone.ordinal()][type] == command) {
+					lane.replaceable[command.zone.ordinal()][type] = null;
+				}
+				long wait = System.nanoTime() - command.queuedAt;
+				lane.dispatched++;
+				lane.waitNanos += wait;
+				lane.maxWaitNanos = Math.max(lane.maxWaitNanos, wait);
+				if (lane == streaming) {
+					streamingWaitNanos = streamingWaitNanos == 0 ? wait : (7 * streamingWaitNanos + wait) / 8;
+				}
+			}
+
+			try {
+				forward(command);
+				forwarded.update(command.commandNr, command.zone, command.value);
+				sent++;
+				lane.sent++;
+				savedPackets += command.saved;
+			} catch (IOException e) {
+				forwarded.invalidate(command.commandNr, command.zone);
+				failed++;
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the lane with the highest priority that has pending commands, or null if there is none or its batch is not finished.
+	 * 			Lower lanes wait for unfinished batches, so they are never optimized for a state the higher lane is about to change.
+	 */
+	private Lane nextLane() {
+		for (Lane lane : lanes) {
+			if (!lane.queue.isEmpty()) {
+				return lane.batches == 0 ? lane : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Forwards a command to the target.
+	 *
+	 * @param command command to forward. Values for saturation, brightness and kelvin are already converted to 0x00 - 0x64.
+	 */
+	private void forward(PendingCommand command) throws IOException {
+		LightController target = command.force ? this.target.forced() : this.target;
+		Zone zone = command.zone;
+		switch (command.commandNr) {
+			case 1:
+				target.turnOn(zone);
+				break;
+			case 2:
+				target.turnOff(zone);
+				break;
+			case 3:
+				target.nightLight(zone);
+				break;
+			case 4:
+				target.turnOnWhiteLight(zone);
+				break;
+			case 5:
+				target.setColor(zone, command.value);
+				break;
+			case 6:
+				target.setSaturation(zone, command.value);
+				break;
+			case 7:
+				target.setBrightness(zone, command.value);
+				break;
+			case 8:
+				target.setKelvin(zone, command.value);
+				break;
+			case 9:
+				target.setMode(zone, command.value);
+				break;
+			case 10:
+				target.increaseSpeed(zone);
+				break;
+			case 11:
+				target.decreaseSpeed(zone);
+				break;
+		}
+	}
+
+	/**
+	 * Maps a command number to its command type.
+	 *
+	 * @param commandNr command number
+	 * @return command type or -1 if the command can not be coalesced
+	 */
+	static int getType(int commandNr) {
+		switch (commandNr) {
+			case 1:
+			case 2:
+			case 3:
+				return POWER;
+			case 4:
+			case 5:
+				return COLOR;
+			case 6:
+				return SATURATION;
+			case 7:
+				return BRIGHTNESS;
+			case 8:
+				return KELVIN;
+			case 9:
+				return MODE;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * @param priority priority of the lane
+	 * @return the lane queueing commands with the given priority
+	 */
+	public Lane getLane(Priority priority) {
+		return lanes[priority.ordinal()];
+	}
+
+	/**
+	 * @return number of commands waiting to be send, in all lanes
+	 */
+	public synchronized int getPending() {
+		int pending = 0;
+		for (Lane lane : lanes) {
+			pending += lane.queue.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * @return number of commands which where queued, in all lanes
+	 */
+	public synchronized long getSubmitted() {
+		long submitted = 0;
+		for (Lane lane : lanes) {
+			submitted += lane.submitted;
+		}
+		return submitted;
+	}
+
+	/**
+	 * @return number of commands which where replaced by a newer command before they where send, in all lanes
+	 */
+	public synchronized long getCoalesced() {
+		long coalesced = 0;
+		for (Lane lane : lanes) {
+			coalesced += lane.coalesced;
+		}
+		return coalesced;
+	}
+
+	/**
+	 * @return number of commands send to the bridge
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return smoothed time in nanoseconds streaming commands wait in the queue, plus the delivery latency of the target
+	 */
+	@Override
+	public long getDeliveryLatency() {
+		return streamingWaitNanos + target.getDeliveryLatency();
+	}
+
+	/**
+	 * @return number of commands which could not be forwarded or where dropped because the streaming lane was full,
+	 * 			plus the lost commands of the target
+	 */
+	@Override
+	public long getLostCommands() {
+		long dropped;
+		synchronized (this) {
+			dropped = streaming.dropped;
+		}
+		return failed + dropped + target.getLostCommands();
+	}
+
+	/**
+	 * @return number of packets saved by merging commands for single zones, see {@link ZoneMerger}
+	 */
+	public long getSavedPackets() {
+		return savedPackets;
+	}
+
+	/**
+	 * @return maximum number of pending streaming commands
+	 */
+	public synchronized int getStreamingCapacity() {
+		return streamingCapacity;
+	}
+
+	/**
+	 * @param streamingCapacity maximum number of pending streaming commands. Values lower than 1 are treated as 1.
+	 */
+	public synchronized void setStreamingCapacity(int streamingCapacity) {
+		this.streamingCapacity = Math.max(1, streamingCapacity);
+	}
+
+	/**
+	 * @return the bridge or group of bridges which receives the commands
+	 */
+	public LightController getTarget() {
+		return target;
+	}
+
+	/**
+	 * Stops the dispatcher thread. Pending commands are discarded.
+	 */
+	public synchronized void stop() {
+		running = false;
+		for (Lane lane : lanes) {
+			lane.queue.clear();
+			lane.clearReplaceable();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Commands of one priority together with their statistics.
+	 * All methods are synchronized on the CommandQueue.
+	 */
+	public class Lane {
+		private final Priority priority;
+		private final LinkedList<PendingCommand> queue = new LinkedList<>();
+		// Pending commands that can still be replaced, indexed by zone and command type
+		private final PendingCommand[][] replaceable = new PendingCommand[Zone.values().length][NUMBER_OF_TYPES];
+		private final Commands commands;
+		private final LightController forced;
+		private boolean optimized = true;
+		private int batches = 0;
+
+		private long submitted = 0;
+		private long coalesced = 0;
+		private long dropped = 0;
+		private long dispatched = 0;
+		private long waitNanos = 0;
+		private long maxWaitNanos = 0;
+		private volatile long sent = 0;
+
+		private Lane(Priority priority) {
+			this.priority = priority;
+			forced = new Commands(this, true, null);
+			commands = new Commands(this, false, forced);
+		}
+
+		/**
+		 * Removes the replaceable commands of the given zone and type, for {@link Zone#ALL} those of all zones.
+		 *
+		 * @param command new command, inherits force and queue time of the removed commands. May be null.
+		 */
+		private void replace(PendingCommand command, Zone zone, int type) {
+			replace(command, zone.ordinal(), type);
+			if (zone == Zone.ALL) {
+				// A command for all zones overrides pending commands for single zones
+				for (int i = 0; i < replaceable.length; i++) {
+					replace(command, i, type);
+				}
+			}
+		}
+
+		private void replace(PendingCommand command, int zone, int type) {
+			PendingCommand old = replaceable[zone][type];
+			if (old == null) {
+				return;
+			}
+			queue.remove(old);
+			replaceable[zone][type] = null;
+			coalesced++;
+			if (command != null) {
+				command.force |= old.force;
+				command.queuedAt = Math.min(command.queuedAt, old.queuedAt);
+			}
+		}
+
+		/**
+		 * Replaces the replaceable command of the given type for {@link Zone#ALL} with commands for all single zones except {@code except}.
+		 * Zones with a newer pending command of the same type are left out as well.
+		 */
+		private void split(Zone except, int type) {
+			PendingCommand all = replaceable[Zone.ALL.ordinal()][type];
+			if (all == null) {
+				return;
+			}
+			int index = queue.indexOf(all);
+			queue.remove(index);
+			replaceable[Zone.ALL.ordinal()][type] = null;
+			for (Zone zone : Zone.values()) {
+				if (zone == Zone.ALL || zone == except || replaceable[zone.ordinal()][type] != null) {
+					continue;
+				}
+				PendingCommand single = new PendingCommand(all.commandNr, zone, all.value, all.force);
+				single.queuedAt = all.queuedAt;
+				queue.add(index++, single);
+				replaceable[zone.ordinal()][type] = single;
+			}
+			optimized = false;
+		}
+
+		/**
+		 * Drops the oldest pending command.
+		 */
+		private void drop() {
+			PendingCommand old = queue.poll();
+			int type = getType(old.commandNr);
+			if (type >= 0 && replaceable[old.zone.ordinal()][type] == old) {
+				replaceable[old.zone.ordinal()][type] = null;
+			}
+			dropped++;
+		}
+
+		private void clearReplaceable() {
+			for (PendingCommand[] commands : replaceable) {
+				Arrays.fill(commands, null);
+			}
+		}
+
+		/**
+		 * Finds the replaceable commands again after the queue was optimized.
+		 */
+		private void updateReplaceable() {
+			clearReplaceable();
+			for (PendingCommand command : queue) {
+				int type = getType(command.commandNr);
+				if (type < 0) {
+					clearReplaceable();
+				} else {
+					replaceable[command.zone.ordinal()][type] = command;
+				}
+			}
+		}
+
+		/**
+		 * @return priority of the commands in this lane
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * @return number of commands waiting to be send
+		 */
+		public int getPending() {
+			synchronized (CommandQueue.this) {
+				return queue.size();
+			}
+		}
+
+		/**
+		 * @return number of commands which where queued
+		 */
+		public long getSubmitted() {
+			synchronized (CommandQueue.this) {
+				return submitted;
+			}
+		}
+
+		/**
+		 * @return number of commands which where replaced by a newer command before they where send
+		 */
+		public long getCoalesced() {
+			synchronized (CommandQueue.this) {
+				return coalesced;
+			}
+		}
+
+		/**
+		 * @return number of commands which where dropped because the lane was full
+		 */
+		public long getDropped() {
+			synchronized (CommandQueue.this) {
+				return dropped;
+			}
+		}
+
+		/**
+		 * @return number of commands send to the bridge
+		 */
+		public long getSent() {
+			return sent;
+		}
+
+		/**
+		 * @return average time in milliseconds commands waited in the lane, measured from the oldest command they replaced
+		 */
+		public double getAverageWait() {
+			synchronized (CommandQueue.this) {
+				return dispatched == 0 ? 0 : waitNanos / 1e6 / dispatched;
+			}
+		}
+
+		/**
+		 * @return longest time in milliseconds a command waited in the lane
+		 */
+		public double getMaxWait() {
+			synchronized (CommandQueue.this) {
+				return maxWaitNanos / 1e6;
+			}
+		}
+	}
+
+	/**
+	 * Queues commands in one lane, see {@link #interactive()} and {@link #forced()}
+	 */
+	private class Commands implements LightController {
+		private final Lane lane;
+		private final boolean force;
+		// Forced commands of the same lane, null if these commands are forced already
+		private final LightController forced;
+
+		private Commands(Lane lane, boolean force, LightController forced) {
+			this.lane = lane;
+			this.force = force;
+			this.forced = forced;
+		}
+
+		@Override
+		public void turnOn(Zone zone) {
+			submit(lane, 1, zone, (byte) 0, force);
+		}
+
+		@Override
+		public void turnOff(Zone zone) {
+			submit(lane, 2, zone, (byte) 0, force);
+		}
+
+		@Override
+		public void nightLight(Zone zone) {
+			submit(lane, 3, zone, (byte) 0, force);
+		}
+
+		@Override
+		public void turnOnWhiteLight(Zone zone) {
+			submit(lane, 4, zone, (byte) 0, force);
+		}
+
+		@Override
+		public void setColor(Zone zone, byte color) {
+			submit(lane, 5, zone, color, force);
+		}
+
+		@Override
+		public void setSaturation(Zone zone, int saturation) {
+			submit(lane, 6, zone, Bridge.convertPercentage(saturation), force);
+		}
+
+		@Override
+		public void setBrightness(Zone zone, int brightness) {
+			submit(lane, 7, zone, Bridge.convertPercentage(brightness), force);
+		}
+
+		@Override
+		public void setKelvin(Zone zone, int kelvin) {
+			submit(lane, 8, zone, Bridge.convertPercentage(kelvin), force);
+		}
+
+		@Override
+		public void setMode(Zone zone, Mode mode) {
+			submit(lane, 9, zone, mode.gebByte(), force);
+		}
+
+		@Override
+		public void setMode(Zone zone, int modeNr) {
+			submit(lane, 9, zone, (byte) modeNr, force);
+		}
+
+		@Override
+		public void increaseSpeed(Zone zone) {
+			submit(lane, 10, zone, (byte) 0, force);
+		}
+
+		@Override
+		public void decreaseSpeed(Zone zone) {
+			submit(lane, 11, zone, (byte) 0, force);
+		}
+
+		@Override
+		public LightController forced() {
+			return forced != null ? forced : this;
+		}
+
+		/**
+		 * Holds back the commands of this lane until {@link #endBatch()}, so all commands of the batch are optimized together.
+		 */
+		@Override
+		public void beginBatch() {
+			synchronized (CommandQueue.this) {
+				lane.batches++;
+			}
+		}
+
+		@Override
+		public void endBatch() {
+			synchronized (CommandQueue.this) {
+				if (lane.batches > 0) {
+					lane.batches--;
+				}
+				CommandQueue.this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * A queued command
+	 */
+	static class PendingCommand {
+		final int commandNr;
+		final Zone zone;
+		final byte value;
+		boolean force;
+		// Packets saved by merging this command, see ZoneMerger
+		int saved = 0;
+		// System.nanoTime() when the command, or the oldest command it replaced, was queued
+		long queuedAt;
+
+		PendingCommand(int commandNr, Zone zone, byte value, boolean force) {
+			this.commandNr = commandNr;
+			this.zone = zone;
+			this.value = value;
+			this.force = force;
+		}
+	}
+}
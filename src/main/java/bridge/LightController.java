@@ -0,0 +1,190 @@
+package bridge;
+
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Light commands supported by the MiLight WiFi Bridge version 6.
+ * Implemented by {@link Bridge} itself and by everything that forwards commands to one or more bridges, e.g. {@link CommandQueue}.
+ * See {@link Bridge} for a detailed description of each command.
+ *
+ * @author Alexander Liebald
+ */
+public interface LightController {
+	/**
+	 * Turns on lights in the selected zone
+	 */
+	void turnOn(Zone zone) throws IOException;
+
+	/**
+	 * Turns off all Lights in the selected zone
+	 */
+	void turnOff(Zone zone) throws IOException;
+
+	/**
+	 * Turns on Night mode in the selected zone
+	 */
+	void nightLight(Zone zone) throws IOException;
+
+	/**
+	 * Turns on white light in the selected zone
+	 */
+	void turnOnWhiteLight(Zone zone) throws IOException;
+
+	/**
+	 * Changes the color to the given value
+	 * 0x1C = Red, D9 = Lavender, BA = Blue, 85 = Aqua, 7A = Green, 54 = Lime, 3B = Yellow, 0x25 = Orange
+	 */
+	void setColor(Zone zone, byte color) throws IOException;
+
+	/**
+	 * Set saturation to value between 0 and 100 in percent
+	 */
+	void setSaturation(Zone zone, int saturation) throws IOException;
+
+	/**
+	 * Set brightness to value between 0 and 100 in percent
+	 */
+	void setBrightness(Zone zone, int brightness) throws IOException;
+
+	/**
+	 * Set Kelvin to value between 0 and 100 in percent
+	 */
+	void setKelvin(Zone zone, int kelvin) throws IOException;
+
+	/**
+	 * Starts the build in mode
+	 */
+	void setMode(Zone zone, Mode mode) throws IOException;
+
+	/**
+	 * Starts the mode with the given number
+	 */
+	void setMode(Zone zone, int modeNr) throws IOException;
+
+	/**
+	 * Increase speed of current mode
+	 */
+	void increaseSpeed(Zone zone) throws IOException;
+
+	/**
+	 * Decrease speed of current mode
+	 */
+	void decreaseSpeed(Zone zone) throws IOException;
+
+	/**
+	 * Returns a LightController that always sends its commands, even if the lights are known to be in the resulting state already.
+	 * Controllers that never skip commands return themselves.
+	 *
+	 * @return LightController which does not skip commands
+	 */
+	default LightController forced() {
+		return this;
+	}
+
+	/**
+	 * Starts a batch of commands which belong together, e.g. the new state of all zones.
+	 * Controllers that optimize commands (see {@link CommandQueue}) wait for the end of the batch before sending them.
+	 * Batches can be nested, every call must be followed by {@link #endBatch()}.
+	 */
+	default void beginBatch() {
+	}
+
+	/**
+	 * Ends a batch of commands started by {@link #beginBatch()}.
+	 */
+	default void endBatch() {
+	}
+
+	/**
+	 * Returns the measured time between handing a command to this controller and the bridge acknowledging it.
+	 * Controllers that do not measure it return 0.
+	 *
+	 * @return delivery latency in nanoseconds
+	 */
+	default long getDeliveryLatency() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of commands which may not have reached the lights, e.g. because the bridge did not acknowledge them
+	 * or they where dropped. Callers keeping the state of the lights should forget it once the number increases.
+	 * Controllers that do not track it return 0.
+	 *
+	 * @return number of lost commands
+	 */
+	default long getLostCommands() {
+		return 0;
+	}
+
+	/**
+	 * Changes the color to Blue
+	 */
+	default void setColorToBlue(Zone zone) throws IOException {
+		setColor(zone, (byte) 0xBA);
+	}
+
+	/**
+	 * Changes the color to Red
+	 */
+	default void setColorToRed(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x1C);
+	}
+
+	/**
+	 * Changes the color to lavender
+	 */
+	default void setColorToLavender(Zone zone) throws IOException {
+		setColor(zone, (byte) 0xD9);
+	}
+
+	/**
+	 * Changes the color to aqua
+	 */
+	default void setColorToAqua(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x85);
+	}
+
+	/**
+	 * Changes the color to green
+	 */
+	default void setColorToGreen(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x7A);
+	}
+
+	/**
+	 * Changes the color to lime
+	 */
+	default void setColorToLime(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x54);
+	}
+
+	/**
+	 * Changes the color to yellow
+	 */
+	default void setColorToYellow(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x3B);
+	}
+
+	/**
+	 * Changes the color to orange
+	 */
+	default void setColorToOrange(Zone zone) throws IOException {
+		setColor(zone, (byte) 0x25);
+	}
+}
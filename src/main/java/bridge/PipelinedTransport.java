@@ -0,0 +1,400 @@
+package bridge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Non-blocking transport for {@link Bridge}.
+ * Commands are written to a {@link DatagramChannel} without waiting for the answer of the bridge.
+ * A receiver thread waits on a {@link Selector} for answers and matches each acknowledgement back to its command using the sequential byte,
+ * which is located at offset 8 of every command and is echoed by the bridge at offset 6 of the answer.
+ * At most {@code window} commands can be unacknowledged at the same time, {@link #send(byte[])} blocks once the window is full.
+ *
+ * Answers that are not command acknowledgements (e.g. session or keep alive answers) can be received using {@link #exchange(byte[])}.
+ *
+ * @author Alexander Liebald
+ */
+class PipelinedTransport implements Closeable {
+	private static final int commandLength = 22;
+
+	private final DatagramChannel channel;
+	private final Selector selector;
+	private final Semaphore window;
+	private final int windowSize;
+	private volatile int timeout;
+
+	// In flight commands, indexed by their sequential byte
+	private final byte[][] inFlight = new byte[256][commandLength];
+	private final long[] sentAt = new long[256];
+	private final boolean[] pending = new boolean[256];
+
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64);
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(64);
+	private final byte[] received = new byte[64];
+
+	// Answers which are not acknowledgements for commands, e.g. answers to session requests
+	private final LinkedBlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+	// Commands that were rejected by the bridge because the session died
+	private final LinkedBlockingQueue<byte[]> rejected = new LinkedBlockingQueue<>();
+
+	private volatile boolean sessionDead = false;
+	private byte sessionID1;
+	private byte sessionID2;
+	private volatile boolean running = true;
+	private final Thread receiver;
+
+	private volatile RateLimiter rateLimiter;
+	// Informed on the receiver thread whenever the bridge rejected a command
+	private volatile Runnable rejectionListener;
+
+	// Every packet is recorded in the wire trace
+	private final WireTrace trace = WireTrace.getShared();
+	private final int traceAddress;
+
+	private volatile long acknowledged = 0;
+	private volatile long timedOut = 0;
+	private volatile long lastRoundTripNanos = 0;
+
+	/**
+	 * Opens a new non-blocking channel to the bridge and starts the receiver thread.
+	 *
+	 * @param	ip		Bridge ip
+	 * @param	port	port of the Bridge
+	 * @param	window	maximum number of unacknowledged commands. Values lower than 1 are treated as 1.
+	 * @param	timeout	timeout in milliseconds after which an unacknowledged command is dropped from the window.
+	 *                  A timeout lower than 1 is replaced with 250 milliseconds, since commands can not stay in the window forever.
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs while opening the channel or selector.
+	 */
+	PipelinedTransport(InetAddress ip, int port, int window, int timeout) throws IOException {
+		this.windowSize = Math.max(1, Math.min(window, 255));
+		this.window = new Semaphore(windowSize);
+		setTimeout(timeout);
+		traceAddress = WireTrace.toAddress(ip);
+
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.connect(new InetSocketAddress(ip, port));
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+
+		receiver = new Thread(this::receive, "PipelinedTransport-" + ip.getHostAddress());
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * Sends a 22 byte command to the bridge without waiting for its acknowledgement.
+	 * Blocks if the window of unacknowledged commands is full, until a command is acknowledged or timed out.
+	 *
+	 * @param data command that will be send to the bridge. The sequential byte must be at offset 8.
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs or the calling thread was interrupted while waiting for a free slot in the window.
+	 */
+	void send(byte[] data) throws IOException {
+		try {
+			window.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free slot in the window");
+		}
+
+		int seq = data[8] & 0xFF;
+		synchronized (this) {
+			if (pending[seq]) {
+				// The slot is still occupied by an old command which was never acknowledged, reuse its permit
+				window.release();
+			}
+			System.arraycopy(data, 0, inFlight[seq], 0, Math.min(data.length, commandLength));
+			sentAt[seq] = System.nanoTime();
+			pending[seq] = true;
+			write(data);
+		}
+	}
+
+	/**
+	 * Sends data to the bridge and waits for the next answer which is not a command acknowledgement.
+	 *
+	 * @param data data that will be send to the bridge
+	 * @return received answer from the bridge. Null if timeout is reached
+	 *
+	 * @throws	IOException
+	 * 			if an I/O error occurs.
+	 */
+	byte[] exchange(byte[] data) throws IOException {
+		responses.clear();
+		synchronized (this) {
+			write(data);
+		}
+		try {
+			return responses.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes {@code data} to the channel. Must be called while holding the lock of this transport.
+	 */
+	private void write(byte[] data) throws IOException {
+		trace.record(WireTrace.SEND, traceAddress, data, data.length, 0);
+		sendBuffer.clear();
+		sendBuffer.put(data);
+		sendBuffer.flip();
+		channel.write(sendBuffer);
+	}
+
+	/**
+	 * Receiver loop. Reads answers from the bridge and expires commands which where not acknowledged in time.
+	 */
+	private void receive() {
+		while (running) {
+			try {
+				selector.select(Math.max(1, timeout / 2));
+				selector.selectedKeys().clear();
+
+				int length;
+				receiveBuffer.clear();
+				while ((length = channel.read(receiveBuffer)) > 0) {
+					receiveBuffer.flip();
+					receiveBuffer.get(received, 0, length);
+					handleAnswer(length);
+					receiveBuffer.clear();
+				}
+
+				expire();
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			} catch (Exception e) {
+				// ClosedSelectorException etc. when the transport gets closed
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles a received answer, located in {@code received}.
+	 *
+	 * @param length length of the answer
+	 */
+	private void handleAnswer(int length) {
+		// Command acknowledgement: 0x88 0x00 0x00 0x00 0x03 0x00 {sequentialByte} {0x00 = ok, 0x01 = session dead}
+		if (received[0] == (byte) 0x88 && length >= 8) {
+			int seq = received[6] & 0xFF;
+			boolean commandRejected = false;
+			synchronized (this) {
+				if (!pending[seq]) {
+					// Late answer for an expired command
+					trace.record(WireTrace.RECEIVE, traceAddress, received, length, 0);
+					return;
+				}
+				trace.record(WireTrace.RECEIVE, traceAddress, received, length, System.nanoTime() - sentAt[seq]);
+				pending[seq] = false;
+				RateLimiter limiter = rateLimiter;
+				if (received[7] == 1) {
+					commandRejected = true;
+					// Commands send with the ids of an older session do not mean the current session is dead
+					if (inFlight[seq][5] == sessionID1 && inFlight[seq][6] == sessionID2) {
+						sessionDead = true;
+						if (limiter != null) {
+							limiter.onLoss();
+						}
+					}
+					rejected.offer(Arrays.copyOf(inFlight[seq], commandLength));
+				} else {
+					acknowledged++;
+					lastRoundTripNanos = System.nanoTime() - sentAt[seq];
+					if (limiter != null) {
+						limiter.onAck(lastRoundTripNanos);
+					}
+				}
+			}
+			window.release();
+			Runnable listener = rejectionListener;
+			if (commandRejected && listener != null) {
+				listener.run();
+			}
+			return;
+		}
+
+		trace.record(WireTrace.RECEIVE, traceAddress, received, length, 0);
+		responses.offer(Arrays.copyOf(received, length));
+	}
+
+	/**
+	 * Drops all commands from the window which where not acknowledged within {@code timeout} milliseconds.
+	 */
+	private void expire() {
+		long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeout);
+		int expired = 0;
+		synchronized (this) {
+			for (int i = 0; i < pending.length; i++) {
+				if (pending[i] && sentAt[i] - deadline < 0) {
+					pending[i] = false;
+					expired++;
+					trace.record(WireTrace.TIMEOUT, traceAddress, inFlight[i], commandLength, System.nanoTime() - sentAt[i]);
+				}
+			}
+			timedOut += expired;
+		}
+		if (expired > 0) {
+			RateLimiter limiter = rateLimiter;
+			if (limiter != null) {
+				limiter.onLoss();
+			}
+			window.release(expired);
+		}
+	}
+
+	/**
+	 * @return true if the bridge reported a dead session since the last call of {@link #sessionRestarted(byte, byte)}
+	 */
+	boolean isSessionDead() {
+		return sessionDead;
+	}
+
+	/**
+	 * Marks the session as alive. Should be called after a new session was started.
+	 *
+	 * @param sessionID1 wifiBridgeSessionID1 of the new session
+	 * @param sessionID2 wifiBridgeSessionID2 of the new session
+	 */
+	synchronized void sessionRestarted(byte sessionID1, byte sessionID2) {
+		this.sessionID1 = sessionID1;
+		this.sessionID2 = sessionID2;
+		sessionDead = false;
+	}
+
+	/**
+	 * Returns the next command which was rejected by the bridge because the session died.
+	 *
+	 * @return a copy of the rejected command or null if there is none
+	 */
+	byte[] pollRejected() {
+		return rejected.poll();
+	}
+
+	/**
+	 * Keeps a command which could not be send because the session is dead, so it is send again like a rejected command.
+	 *
+	 * @param data the command, copied
+	 */
+	void reject(byte[] data) {
+		rejected.offer(Arrays.copyOf(data, commandLength));
+	}
+
+	/**
+	 * @return true if there are rejected commands which where not polled yet
+	 */
+	boolean hasRejected() {
+		return !rejected.isEmpty();
+	}
+
+	/**
+	 * @param rejectionListener called on the receiver thread whenever the bridge rejected a command, must not block. May be null.
+	 */
+	void setRejectionListener(Runnable rejectionListener) {
+		this.rejectionListener = rejectionListener;
+	}
+
+	/**
+	 * @param timeout timeout in milliseconds for answers and acknowledgements. Values lower than 1 are replaced with 250.
+	 */
+	void setTimeout(int timeout) {
+		this.timeout = timeout > 0 ? timeout : 250;
+	}
+
+	/**
+	 * @return timeout in milliseconds for answers and acknowledgements
+	 */
+	int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param rateLimiter rate limiter which is informed about acknowledged and lost commands. May be null.
+	 */
+	void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @return maximum number of unacknowledged commands
+	 */
+	int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return number of currently unacknowledged commands
+	 */
+	int getInFlight() {
+		return windowSize - window.availablePermits();
+	}
+
+	/**
+	 * @return number of commands acknowledged by the bridge
+	 */
+	long getAcknowledged() {
+		return acknowledged;
+	}
+
+	/**
+	 * @return number of commands which where not acknowledged within the timeout
+	 */
+	long getTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return round trip time in nanoseconds of the last acknowledged command
+	 */
+	long getLastRoundTripNanos() {
+		return lastRoundTripNanos;
+	}
+
+	/**
+	 * Stops the receiver thread and closes the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.close();
+		channel.close();
+	}
+}
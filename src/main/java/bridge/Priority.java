@@ -0,0 +1,33 @@
+package bridge;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Lanes of a {@link CommandQueue}, from the highest to the lowest priority.
+ *
+ * @author Alexander Liebald
+ */
+public enum Priority {
+	/**
+	 * Commands of the user, e.g. from the web interface. Always send before streaming commands.
+	 */
+	INTERACTIVE,
+	/**
+	 * Continuous updates of effects, e.g. music modes. Coalesced and dropped if the bridge can not keep up.
+	 */
+	STREAMING
+}
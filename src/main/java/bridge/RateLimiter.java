@@ -0,0 +1,202 @@
+package bridge;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Adaptive token bucket that paces the commands send to a {@link Bridge}.
+ * The rate is adjusted using the answers of the bridge (AIMD):
+ * every acknowledged command increases the rate slightly, so the rate grows by about {@code increase} commands per second every second.
+ * A timeout, a dead session or a round trip time far above the lowest observed round trip time decreases the rate multiplicatively,
+ * at most once per round trip, so the rate stays below the point where the bridge starts to drop packets.
+ *
+ * @author Alexander Liebald
+ */
+public class RateLimiter {
+	private static final double decreaseFactor = 0.7d;
+	private static final double increase = 5.0d;
+	// A round trip time above rttFactor * minimal round trip time + rttMargin is treated as congestion
+	private static final double rttFactor = 2.0d;
+	private static final long rttMargin = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final double minRate;
+	private final double maxRate;
+	private final double burst;
+
+	private double rate;
+	private double tokens;
+	private long lastRefill;
+
+	private double smoothedRtt = 0;
+	private long minRtt = Long.MAX_VALUE;
+	private long lastDecrease = 0;
+
+	private long acquired = 0;
+	private long decreases = 0;
+	private long throttledNanos = 0;
+
+	/**
+	 * @param initialRate rate in commands per second used until the first answers are received
+	 * @param minRate lowest rate in commands per second, the rate is never decreased below this value
+	 * @param maxRate highest rate in commands per second
+	 * @param burst number of commands that can be send at once after a pause
+	 */
+	public RateLimiter(double initialRate, double minRate, double maxRate, double burst) {
+		this.minRate = Math.max(minRate, 1.0d);
+		this.maxRate = Math.max(maxRate, this.minRate);
+		this.burst = Math.max(burst, 1.0d);
+		this.rate = Math.min(Math.max(initialRate, this.minRate), this.maxRate);
+		this.tokens = this.burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Creates a RateLimiter which starts at half of {@code maxRate}, never goes below 5 commands per second and allows bursts of 4 commands.
+	 *
+	 * @param maxRate highest rate in commands per second
+	 */
+	public RateLimiter(double maxRate) {
+		this(maxRate / 2, 5, maxRate, 4);
+	}
+
+	/**
+	 * Waits until the next command may be send.
+	 *
+	 * @throws InterruptedIOException if the thread was interrupted while waiting
+	 */
+	public void acquire() throws InterruptedIOException {
+		long wait;
+		synchronized (this) {
+			refill();
+			// Reserve a token, a negative amount of tokens is paid back by waiting
+			tokens -= 1;
+			wait = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+			acquired++;
+			throttledNanos += wait;
+		}
+
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+			}
+		}
+	}
+
+	/**
+	 * Called when the bridge acknowledged a command.
+	 *
+	 * @param rttNanos round trip time of the command in nanoseconds
+	 */
+	public synchronized void onAck(long rttNanos) {
+		minRtt = Math.min(minRtt, rttNanos);
+		smoothedRtt = smoothedRtt == 0 ? rttNanos : 0.875d * smoothedRtt + 0.125d * rttNanos;
+
+		if (rttNanos > rttFactor * minRtt + rttMargin) {
+			// The bridge is queueing our commands, back off before it starts dropping them
+			decrease();
+		} else {
+			rate = Math.min(maxRate, rate + increase / rate);
+		}
+	}
+
+	/**
+	 * Called when the bridge did not answer a command in time or rejected it because of a dead session.
+	 */
+	public synchronized void onLoss() {
+		decrease();
+	}
+
+	/**
+	 * Decreases the rate, at most once per round trip time (at least 100 milliseconds), since all losses within one round trip are caused by the same burst.
+	 */
+	private void decrease() {
+		long now = System.nanoTime();
+		long holdOff = Math.max((long) smoothedRtt, TimeUnit.MILLISECONDS.toNanos(100));
+		if (now - lastDecrease < holdOff) {
+			return;
+		}
+		lastDecrease = now;
+		decreases++;
+		rate = Math.max(minRate, rate * decreaseFactor);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+		lastRefill = now;
+	}
+
+	/**
+	 * @return current rate in commands per second
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return smoothed round trip time in milliseconds, 0 if no command was acknowledged yet
+	 */
+	public synchronized double getSmoothedRtt() {
+		return smoothedRtt / 1e6;
+	}
+
+	/**
+	 * @return lowest observed round trip time in milliseconds, 0 if no command was acknowledged yet
+	 */
+	public synchronized double getMinRtt() {
+		return minRtt == Long.MAX_VALUE ? 0 : minRtt / 1e6;
+	}
+
+	/**
+	 * @return true if the rate was decreased within the last second
+	 */
+	public synchronized boolean isBackingOff() {
+		return decreases > 0 && System.nanoTime() - lastDecrease < TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return number of times the rate was decreased
+	 */
+	public synchronized long getDecreases() {
+		return decreases;
+	}
+
+	/**
+	 * @return number of commands that passed the rate limiter
+	 */
+	public synchronized long getAcquired() {
+		return acquired;
+	}
+
+	/**
+	 * @return total time in milliseconds commands waited for the rate limiter
+	 */
+	public synchronized double getThrottledTime() {
+		return throttledNanos / 1e6;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RateLimiter{rate=" + (int) rate + "/s, smoothedRtt=" + getSmoothedRtt() + "ms, minRtt=" + getMinRtt() + "ms, decreases=" + decreases
+				+ ", backingOff=" + isBackingOff() + ", throttled=" + getThrottledTime() + "ms}";
+	}
+}
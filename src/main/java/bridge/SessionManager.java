@@ -0,0 +1,227 @@
+package bridge;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Keeps the sessions of registered bridges alive and renews them in the background.
+ * Every {@code keepAliveInterval} milliseconds a keep alive message is send to each bridge. A new session is started if the bridge
+ * did not answer two keep alive messages in a row, if the session is older than {@code maxSessionAge} milliseconds or if a command
+ * reported a dead session. Commands keep using the old session until the new one is established, so they never wait for a handshake.
+ *
+ * All bridges share the threads of one {@link ScheduledExecutorService}, which are daemon threads and stop with the application.
+ *
+ * @author Alexander Liebald
+ */
+public class SessionManager {
+	private static SessionManager shared;
+
+	private final ScheduledExecutorService executor;
+	private final Map<Bridge, ManagedSession> sessions = new ConcurrentHashMap<>();
+	private final long keepAliveInterval;
+	private final long maxSessionAge;
+
+	/**
+	 * @param keepAliveInterval time in milliseconds between two keep alive messages. Values lower than 1 are replaced with 5000.
+	 * @param maxSessionAge time in milliseconds after which a session is renewed proactively. 0 to only renew dead sessions.
+	 */
+	public SessionManager(long keepAliveInterval, long maxSessionAge) {
+		this.keepAliveInterval = keepAliveInterval > 0 ? keepAliveInterval : 5000;
+		this.maxSessionAge = Math.max(0, maxSessionAge);
+		this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "SessionManager");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the SessionManager shared by all bridges. It sends a keep alive message every 5 seconds and renews sessions after 10 minutes.
+	 *
+	 * @return the shared SessionManager
+	 */
+	public static synchronized SessionManager getShared() {
+		if (shared == null) {
+			shared = new SessionManager(5000, TimeUnit.MINUTES.toMillis(10));
+		}
+		return shared;
+	}
+
+	/**
+	 * Starts sending keep alive messages to the bridge and renews its session when necessary.
+	 *
+	 * @param bridge bridge with an established session
+	 */
+	public void register(Bridge bridge) {
+		ManagedSession session = new ManagedSession(bridge);
+		if (sessions.putIfAbsent(bridge, session) != null) {
+			return;
+		}
+		bridge.setSessionManager(this);
+		session.future = executor.scheduleWithFixedDelay(() -> session.run(true), keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sending keep alive messages to the bridge. Dead sessions are restarted by the sending thread again.
+	 *
+	 * @param bridge registered bridge
+	 */
+	public void unregister(Bridge bridge) {
+		ManagedSession session = sessions.remove(bridge);
+		if (session != null) {
+			session.future.cancel(false);
+			bridge.setSessionManager(null);
+		}
+	}
+
+	/**
+	 * Requests a new session for the bridge without waiting for it. Multiple requests while a session is started result in one new session.
+	 *
+	 * @param bridge registered bridge
+	 */
+	public void renew(Bridge bridge) {
+		ManagedSession session = sessions.get(bridge);
+		if (session != null) {
+			session.renewRequested = true;
+			session.schedule();
+		}
+	}
+
+	/**
+	 * @param bridge registered bridge
+	 * @return number of sessions started in the background for the bridge, -1 if the bridge is not registered
+	 */
+	public long getRenewals(Bridge bridge) {
+		ManagedSession session = sessions.get(bridge);
+		return session == null ? -1 : session.renewals;
+	}
+
+	/**
+	 * @param bridge registered bridge
+	 * @return number of keep alive messages the bridge did not answer, -1 if the bridge is not registered
+	 */
+	public long getMissedKeepAlives(Bridge bridge) {
+		ManagedSession session = sessions.get(bridge);
+		return session == null ? -1 : session.missedTotal;
+	}
+
+	/**
+	 * Runs a task on the threads of the SessionManager, e.g. sending the rejected commands of a bridge again.
+	 *
+	 * @param task task that should not block for long, since keep alive messages wait for it
+	 * @return false if the SessionManager was shut down and the task is not run
+	 */
+	boolean execute(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops all keep alive messages and session renewals.
+	 */
+	public void shutdown() {
+		for (Bridge bridge : sessions.keySet()) {
+			unregister(bridge);
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The session of a registered bridge. Keep alive checks and renewals of one bridge never run at the same time.
+	 */
+	private class ManagedSession {
+		private final Bridge bridge;
+		private final AtomicBoolean busy = new AtomicBoolean();
+		private volatile boolean renewRequested = false;
+		private ScheduledFuture<?> future;
+		private int missed = 0;
+		private volatile long missedTotal = 0;
+		private volatile long renewals = 0;
+
+		private ManagedSession(Bridge bridge) {
+			this.bridge = bridge;
+		}
+
+		/**
+		 * Runs a renewal on the executor, unless a check or renewal is already running.
+		 */
+		private void schedule() {
+			if (busy.get()) {
+				// The running task picks up the request when it is done
+				return;
+			}
+			try {
+				executor.execute(() -> run(false));
+			} catch (RejectedExecutionException ignored) {
+				// The SessionManager was shut down
+			}
+		}
+
+		/**
+		 * @param keepAlive true to send a keep alive message and check the age of the session
+		 */
+		private void run(boolean keepAlive) {
+			if (!busy.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				if (keepAlive && !renewRequested) {
+					if (maxSessionAge > 0 && bridge.getSessionAge() > maxSessionAge) {
+						System.out.println("SessionManager: renewing session of " + bridge.getIp() + " after " + bridge.getSessionAge() / 1000 + "s");
+						renewRequested = true;
+					} else if (bridge.ping()) {
+						missed = 0;
+					} else {
+						missed++;
+						missedTotal++;
+						renewRequested = missed >= 2;
+					}
+				}
+
+				if (renewRequested) {
+					renewRequested = false;
+					if (bridge.renewSession()) {
+						renewals++;
+						missed = 0;
+						// Requests made during the renewal where caused by commands using the old session
+						renewRequested = false;
+					}
+				}
+			} finally {
+				busy.set(false);
+			}
+
+			// A command reported a dead session while this task was running
+			if (renewRequested) {
+				schedule();
+			}
+		}
+	}
+}
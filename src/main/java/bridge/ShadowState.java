@@ -0,0 +1,173 @@
+package bridge;
+
+import java.util.Arrays;
+
+import static bridge.CommandQueue.*;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Last known state of each zone. {@link Bridge} uses it to skip commands that would not change anything,
+ * {@link CommandQueue} to merge commands for single zones into commands for all zones (see {@link ZoneMerger}).
+ * The state of a zone consists of power (on, off, night light), color (or white light), saturation, brightness, kelvin and the build in mode.
+ * The fields of a zone are the command types of {@link CommandQueue}, every field stores the command number and value of the last command
+ * that changed it, or is unknown.
+ *
+ * Commands for {@link Zone#ALL} change all four zones and are only skipped if all zones already have the same state.
+ * While a zone is not known to be on, commands other than power commands do not update its state,
+ * since lights might ignore them. Commands without a state (speed, linking) are never skipped.
+ *
+ * @author Alexander Liebald
+ */
+class ShadowState {
+	private static final int UNKNOWN = -1;
+	private static final int ZONES = 4;
+
+	// State indexed by zone (FIRST = 0) and field: commandNr << 8 | value
+	private final int[][] state = new int[ZONES][NUMBER_OF_TYPES];
+	private long skipped = 0;
+
+	ShadowState() {
+		invalidate();
+	}
+
+	/**
+	 * Checks whether a command would not change anything and counts it as skipped if so.
+	 *
+	 * @param commandNr command number, see {@link Bridge#createData(int, byte, byte)}
+	 * @param zone zone of the command
+	 * @param value value of the command, 0 for commands without a value
+	 * @return true if all zones affected by the command already have the resulting state
+	 */
+	synchronized boolean skip(int commandNr, Zone zone, byte value) {
+		if (!matches(commandNr, zone, value)) {
+			return false;
+		}
+		skipped++;
+		return true;
+	}
+
+	/**
+	 * @param commandNr command number, see {@link Bridge#createData(int, byte, byte)}
+	 * @param zone zone of the command
+	 * @param value value of the command, 0 for commands without a value
+	 * @return true if all zones affected by the command are known to have the resulting state
+	 */
+	synchronized boolean matches(int commandNr, Zone zone, byte value) {
+		int field = getType(commandNr);
+		if (field < 0) {
+			return false;
+		}
+		int encoded = encode(commandNr, value);
+		int from = zone == Zone.ALL ? 0 : zone.ordinal() - 1;
+		int to = zone == Zone.ALL ? ZONES : from + 1;
+		for (int i = from; i < to; i++) {
+			if (state[i][field] != encoded) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Updates the state after the bridge accepted a command.
+	 *
+	 * @param commandNr command number, see {@link Bridge#createData(int, byte, byte)}
+	 * @param zone zone of the command
+	 * @param value value of the command, 0 for commands without a value
+	 */
+	synchronized void update(int commandNr, Zone zone, byte value) {
+		int from = zone == Zone.ALL ? 0 : zone.ordinal() - 1;
+		int to = zone == Zone.ALL ? ZONES : from + 1;
+		for (int i = from; i < to; i++) {
+			update(state[i], commandNr, value);
+		}
+	}
+
+	private void update(int[] zone, int commandNr, byte value) {
+		int field = getType(commandNr);
+		if (field < 0) {
+			// Linking or unlinking lights changes which lights belong to the zone
+			if (commandNr == 12 || commandNr == 13) {
+				Arrays.fill(zone, UNKNOWN);
+			}
+			return;
+		}
+
+		if (field == POWER) {
+			zone[POWER] = encode(commandNr, value);
+			if (commandNr == 3) {
+				// Night light changes color and brightness
+				zone[COLOR] = UNKNOWN;
+				zone[BRIGHTNESS] = UNKNOWN;
+			}
+			return;
+		}
+		if (zone[POWER] != encode(1, (byte) 0)) {
+			// Lights which might be off might ignore the command
+			zone[field] = UNKNOWN;
+			return;
+		}
+
+		zone[field] = encode(commandNr, value);
+		// A color ends the build in mode, a build in mode changes the color
+		if (field == COLOR) {
+			zone[MODE] = UNKNOWN;
+		} else if (field == MODE) {
+			zone[COLOR] = UNKNOWN;
+		}
+	}
+
+	/**
+	 * Forgets the state of the field changed by a command, e.g. if the bridge did not acknowledge it.
+	 *
+	 * @param commandNr command number, see {@link Bridge#createData(int, byte, byte)}
+	 * @param zone zone of the command
+	 */
+	synchronized void invalidate(int commandNr, Zone zone) {
+		int field = getType(commandNr);
+		int from = zone == Zone.ALL ? 0 : zone.ordinal() - 1;
+		int to = zone == Zone.ALL ? ZONES : from + 1;
+		for (int i = from; i < to; i++) {
+			if (field < 0) {
+				Arrays.fill(state[i], UNKNOWN);
+			} else {
+				state[i][field] = UNKNOWN;
+			}
+		}
+	}
+
+	/**
+	 * Forgets the whole state, e.g. after the session was restarted.
+	 */
+	synchronized void invalidate() {
+		for (int[] zone : state) {
+			Arrays.fill(zone, UNKNOWN);
+		}
+	}
+
+	/**
+	 * @return number of commands which where skipped because they would not change anything
+	 */
+	synchronized long getSkipped() {
+		return skipped;
+	}
+
+	private static int encode(int commandNr, byte value) {
+		return commandNr << 8 | (value & 0xFF);
+	}
+}
@@ -0,0 +1,258 @@
+package bridge;
+
+import java.io.*;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * In-memory trace of the packets exchanged with the bridges, replacing the console output of every packet.
+ * Every record holds the time, direction, address of the bridge, the raw packet (up to 32 bytes) and, for answers, the latency.
+ *
+ * Records are written into preallocated arrays without allocating or formatting anything, the oldest records are overwritten.
+ * If the trace is disabled, recording only costs the check of a flag. Records are formatted when the trace is dumped, see {@link #dump(Writer)}.
+ *
+ * Records may be written by several threads at the same time. Every slot has a sequence number which is invalidated while the slot is written,
+ * so a dump skips records which are overwritten while being read instead of printing mixed records.
+ *
+ * @author Alexander Liebald
+ */
+public class WireTrace {
+	/**
+	 * Packet send to a bridge
+	 */
+	public static final byte SEND = 0;
+	/**
+	 * Packet received from a bridge
+	 */
+	public static final byte RECEIVE = 1;
+	/**
+	 * No answer received for a send packet, the record contains the send packet
+	 */
+	public static final byte TIMEOUT = 2;
+
+	private static final int maxLength = 32;
+	private static final String[] directionNames = {"SEND   ", "RECEIVE", "TIMEOUT"};
+	private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
+	private static final WireTrace shared = new WireTrace(4096);
+
+	private volatile boolean enabled = false;
+	private final AtomicLong next = new AtomicLong();
+	private final int mask;
+
+	// Sequence number of the record in each slot, -1 while the slot is written
+	private final AtomicLongArray sequences;
+	private final long[] times;
+	private final long[] latencies;
+	private final int[] addresses;
+	private final byte[] directions;
+	private final byte[] lengths;
+	private final byte[] data;
+
+	// Reference points to convert System.nanoTime() to the wall clock when dumping
+	private final long baseNanos = System.nanoTime();
+	private final long baseMillis = System.currentTimeMillis();
+
+	/**
+	 * @param capacity number of records kept, rounded up to the next power of two
+	 */
+	public WireTrace(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, -1);
+		}
+		times = new long[size];
+		latencies = new long[size];
+		addresses = new int[size];
+		directions = new byte[size];
+		lengths = new byte[size];
+		data = new byte[size * maxLength];
+	}
+
+	/**
+	 * @return trace shared by all bridges
+	 */
+	public static WireTrace getShared() {
+		return shared;
+	}
+
+	/**
+	 * Converts an address into the form stored in the records.
+	 *
+	 * @param address address of a bridge
+	 * @return IPv4 address as int, or the hash of other addresses
+	 */
+	public static int toAddress(InetAddress address) {
+		byte[] bytes = address.getAddress();
+		if (bytes.length != 4) {
+			return address.hashCode();
+		}
+		return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+	}
+
+	/**
+	 * Records a packet, if the trace is enabled.
+	 *
+	 * @param direction {@link #SEND}, {@link #RECEIVE} or {@link #TIMEOUT}
+	 * @param address address of the bridge, see {@link #toAddress(InetAddress)}
+	 * @param packet raw packet, only the first 32 bytes are recorded
+	 * @param length length of the packet
+	 * @param latencyNanos time between sending a packet and receiving its answer in nanoseconds, 0 if unknown
+	 */
+	public void record(byte direction, int address, byte[] packet, int length, long latencyNanos) {
+		if (!enabled) {
+			return;
+		}
+		long sequence = next.getAndIncrement();
+		int slot = (int) (sequence & mask);
+
+		sequences.setOpaque(slot, -1);
+		// The record must not be written before the slot was invalidated
+		VarHandle.storeStoreFence();
+		times[slot] = System.nanoTime();
+		latencies[slot] = latencyNanos;
+		addresses[slot] = address;
+		directions[slot] = direction;
+		int recorded = Math.min(Math.min(length, packet.length), maxLength);
+		lengths[slot] = (byte) recorded;
+		System.arraycopy(packet, 0, data, slot * maxLength, recorded);
+		sequences.setRelease(slot, sequence);
+	}
+
+	/**
+	 * @return true if packets are recorded
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled true to record packets
+	 */
+	public void setEnabled(boolean enabled) {
+		System.out.println("SET WIRE TRACE TO " + enabled);
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return number of packets recorded since the trace was created, including overwritten ones
+	 */
+	public long getRecorded() {
+		return next.get();
+	}
+
+	/**
+	 * @return maximum number of records kept
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Writes all kept records, oldest first, one line per record:
+	 * {@code time direction bridge length latency packet}
+	 *
+	 * @param writer receives the records
+	 * @throws IOException if writing fails
+	 */
+	public void dump(Writer writer) throws IOException {
+		long last = next.get();
+		long first = Math.max(0, last - mask - 1);
+		byte[] packet = new byte[maxLength];
+		StringBuilder line = new StringBuilder(256);
+
+		for (long sequence = first; sequence < last; sequence++) {
+			int slot = (int) (sequence & mask);
+			if (sequences.get(slot) != sequence) {
+				continue;
+			}
+			long time = times[slot];
+			long latency = latencies[slot];
+			int address = addresses[slot];
+			byte direction = directions[slot];
+			int length = lengths[slot];
+			System.arraycopy(data, slot * maxLength, packet, 0, length);
+			// The record must be read before the sequence number is checked again
+			VarHandle.acquireFence();
+			if (sequences.get(slot) != sequence) {
+				// Overwritten while reading
+				continue;
+			}
+
+			line.setLength(0);
+			line.append(Instant.ofEpochMilli(baseMillis + (time - baseNanos) / 1000000)).append(' ')
+					.append(direction >= 0 && direction < directionNames.length ? directionNames[direction] : "UNKNOWN").append(' ')
+					.append(address >>> 24).append('.').append(address >> 16 & 0xFF).append('.').append(address >> 8 & 0xFF).append('.').append(address & 0xFF)
+					.append(" length=").append(length);
+			if (latency > 0) {
+				line.append(" latency=").append(latency / 1000).append("us");
+			}
+			line.append(" [");
+			for (int i = 0; i < length; i++) {
+				if (i > 0) {
+					line.append(' ');
+				}
+				line.append(hexDigits[packet[i] >> 4 & 0xF]).append(hexDigits[packet[i] & 0xF]);
+			}
+			line.append("]\n");
+			writer.append(line);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * @return all kept records, see {@link #dump(Writer)}
+	 */
+	public String dump() {
+		StringWriter writer = new StringWriter();
+		try {
+			dump(writer);
+		} catch (IOException e) {
+			// StringWriter does not throw
+			e.printStackTrace();
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Writes all kept records to a file, see {@link #dump(Writer)}
+	 *
+	 * @param file file receiving the records, it is overwritten
+	 * @throws IOException if writing fails
+	 */
+	public void dump(File file) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			dump(writer);
+		}
+	}
+
+	/**
+	 * Removes all records.
+	 */
+	public void clear() {
+		for (int i = 0; i <= mask; i++) {
+			sequences.set(i, -1);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static bridge.CommandQueue.*;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Optimizes the pending commands of a {@link CommandQueue} to need fewer packets.
+ *
+ * Commands with the same command and value for single zones are merged into one command for {@link Zone#ALL}.
+ * Zones without a pending command can be part of the merge if they are known to have the same state already,
+ * e.g. if zones one to three are set to the color zone four was set to before.
+ * If most zones get the same value, the value is send to all zones and the other zones get their own value afterwards,
+ * as long as this needs fewer packets. Commands for single zones repeating a pending command for all zones are dropped.
+ *
+ * Commands are optimized in segments, separated by commands without a state (speed) and build in modes, which keep their position.
+ * Within a segment commands are send in a fixed order: turning lights on, color, saturation, brightness, kelvin and turning lights off,
+ * so no command is send to lights which are turned off in the same segment. Commands for all zones come before the commands for single zones of the same type.
+ *
+ * @author Alexander Liebald
+ */
+class ZoneMerger {
+	// Order in which the command types of a segment are send
+	private static final int[] typeOrder = {POWER, COLOR, SATURATION, BRIGHTNESS, KELVIN};
+	private static final int ZONES = 4;
+
+	private final ShadowState known;
+
+	/**
+	 * @param known state of the zones after all commands that where already forwarded
+	 */
+	ZoneMerger(ShadowState known) {
+		this.known = known;
+	}
+
+	/**
+	 * Optimizes pending commands. Merged commands count the packets they save in {@link PendingCommand#saved}.
+	 *
+	 * @param queue pending commands, oldest first. Every zone has at most one command per type between two commands without a state.
+	 */
+	void optimize(List<PendingCommand> queue) {
+		List<PendingCommand> result = new ArrayList<>(queue.size());
+		List<PendingCommand> segment = new ArrayList<>();
+		// Zones and types changed by commands before the current segment, their state is not known when the segment is send
+		boolean[][] touched = new boolean[ZONES + 1][NUMBER_OF_TYPES];
+
+		for (PendingCommand command : queue) {
+			int type = getType(command.commandNr);
+			if (type >= 0 && type != MODE) {
+				segment.add(command);
+				continue;
+			}
+			flush(segment, touched, result);
+			result.add(command);
+			if (type == MODE) {
+				// Build in modes change the color
+				touched[command.zone.ordinal()][MODE] = true;
+				touched[command.zone.ordinal()][COLOR] = true;
+			}
+		}
+		flush(segment, touched, result);
+
+		queue.clear();
+		queue.addAll(result);
+	}
+
+	/**
+	 * Optimizes a segment and appends it to {@code result}.
+	 */
+	private void flush(List<PendingCommand> segment, boolean[][] touched, List<PendingCommand> result) {
+		if (segment.isEmpty()) {
+			return;
+		}
+		List<PendingCommand> turnOff = new ArrayList<>();
+
+		for (int type : typeOrder) {
+			PendingCommand all = null;
+			PendingCommand[] singles = new PendingCommand[ZONES];
+			int count = 0;
+			for (PendingCommand command : segment) {
+				if (getType(command.commandNr) != type) {
+					continue;
+				}
+				if (command.zone == Zone.ALL) {
+					all = command;
+				} else {
+					singles[command.zone.ordinal() - 1] = command;
+					count++;
+				}
+			}
+			if (all == null && count == 0) {
+				continue;
+			}
+
+			if (all != null) {
+				// Single zones repeating the command for all zones
+				for (int zone = 0; zone < ZONES; zone++) {
+					if (singles[zone] != null && sameCommand(singles[zone], all)) {
+						all.force |= singles[zone].force;
+						all.saved += 1 + singles[zone].saved;
+						all.queuedAt = Math.min(all.queuedAt, singles[zone].queuedAt);
+						singles[zone] = null;
+					}
+				}
+			} else {
+				all = merge(singles, count, type, touched);
+			}
+
+			boolean powerSingles = false;
+			for (PendingCommand single : singles) {
+				powerSingles |= single != null && type == POWER;
+			}
+			if (all != null) {
+				if (type == POWER && all.commandNr != 1 && !powerSingles) {
+					turnOff.add(all);
+				} else {
+					result.add(all);
+				}
+				for (boolean[] zone : touched) {
+					zone[type] = true;
+				}
+			}
+			for (PendingCommand single : singles) {
+				if (single == null) {
+					continue;
+				}
+				if (type == POWER && single.commandNr != 1) {
+					turnOff.add(single);
+				} else {
+					result.add(single);
+				}
+				touched[single.zone.ordinal()][type] = true;
+			}
+		}
+
+		result.addAll(turnOff);
+		segment.clear();
+	}
+
+	/**
+	 * Finds the value which needs the fewest packets if it is send to all zones, followed by the other values for single zones.
+	 *
+	 * @param singles pending command for every zone of one type, removes the merged commands
+	 * @param count number of pending commands
+	 * @return the merged command for all zones, or null if merging saves no packet
+	 */
+	private PendingCommand merge(PendingCommand[] singles, int count, int type, boolean[][] touched) {
+		PendingCommand best = null;
+		int bestPackets = count;
+
+		for (PendingCommand candidate : singles) {
+			if (candidate == null) {
+				continue;
+			}
+			int packets = 1;
+			boolean possible = true;
+			for (int zone = 0; zone < ZONES && possible; zone++) {
+				if (singles[zone] != null) {
+					if (!sameCommand(singles[zone], candidate)) {
+						packets++;
+					}
+				} else {
+					// The zone is only part of the merge if it already has the state
+					Zone single = Zone.values()[zone + 1];
+					possible = !touched[zone + 1][type] && !touched[Zone.ALL.ordinal()][type]
+							&& known.matches(candidate.commandNr, single, candidate.value);
+				}
+			}
+			if (possible && packets < bestPackets) {
+				best = candidate;
+				bestPackets = packets;
+			}
+		}
+		if (best == null) {
+			return null;
+		}
+
+		PendingCommand merged = new PendingCommand(best.commandNr, Zone.ALL, best.value, false);
+		merged.saved = count - bestPackets;
+		merged.queuedAt = best.queuedAt;
+		for (int zone = 0; zone < ZONES; zone++) {
+			if (singles[zone] != null && sameCommand(singles[zone], best)) {
+				merged.force |= singles[zone].force;
+				merged.saved += singles[zone].saved;
+				merged.queuedAt = Math.min(merged.queuedAt, singles[zone].queuedAt);
+				singles[zone] = null;
+			}
+		}
+		return merged;
+	}
+
+	private static boolean sameCommand(PendingCommand a, PendingCommand b) {
+		return a.commandNr == b.commandNr && a.value == b.value;
+	}
+}
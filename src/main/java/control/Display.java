@@ -46,7 +46,6 @@ public class Display extends Application {
 	private static Scene scene;
 	private static XYChart.Series<String, Number> series1, series2, series3, series4; // 1: data, 2: threshold, 3: Beat (yes/no), 4: variance/c value
 	private static SimpleDateFormat simpleDateFormat;
-	private Thread mmcThread;
 	private MusicModeController mmc;
 
 	/**
@@ -133,8 +132,7 @@ public class Display extends Application {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		mmcThread = new Thread(mmc);
-		mmcThread.start();
+		mmc.start();
 
 		// show the stage
 		primaryStage.show();
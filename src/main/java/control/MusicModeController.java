@@ -1,6 +1,7 @@
 package control;
 
 import audioProcessing.BeatDetector;
+import musicModes.Compositor;
 import musicModes.MusicMode;
 
 import java.io.IOException;
@@ -23,29 +24,100 @@ import java.io.IOException;
 
 /**
  * This class is responsible for controlling music effects.
- * It is recommended to start this in a separate Thread, can be stopped by calling {@code stop()} on {@code MusicModeController} (Not on the actual Thread!).
+ * Beats are passed to the {@link MusicMode} as soon as they are detected, {@link MusicMode#maintain(long)} is called at the render rate
+ * of a {@link TickScheduler}, so animations run at the same speed regardless of the rate audio frames are read at.
+ * The render rate can not exceed the audio frame rate (about 86 frames per second), since ticks are checked after every frame.
+ * If the MusicMode writes into the layers of a {@link Compositor}, the compositor is rendered after every beat and tick.
+ * Runs in its own Thread, started by {@link #start()} and stopped by {@link #stop()}. Starting it again waits for the previous Thread to finish,
+ * so the frames of the BeatDetector are never read by two Threads.
  *
  * @author Alexander Liebald
  */
 public class MusicModeController implements Runnable {
 	private volatile MusicMode musicMode;
+	private volatile Compositor compositor;
 	private volatile BeatDetector beatDetector;
 	private volatile boolean running;
+	private Thread thread;
+	private final TickScheduler scheduler;
 
-	public MusicModeController(MusicMode musicMode, BeatDetector beatDetector) {
+	/**
+	 * @param musicMode MusicMode receiving beats and ticks
+	 * @param beatDetector BeatDetector used
+	 * @param renderRate ticks per second, see {@link #setRenderRate(double)}
+	 */
+	public MusicModeController(MusicMode musicMode, BeatDetector beatDetector, double renderRate) {
 		this.musicMode = musicMode;
 		this.beatDetector = beatDetector;
+		this.scheduler = new TickScheduler(renderRate);
 		running = false;
 	}
 
+	public MusicModeController(MusicMode musicMode, BeatDetector beatDetector) {
+		this(musicMode, beatDetector, 30);
+	}
+
+	/**
+	 * Starts the Thread of the MusicModeController. If it is running already, the previous Thread is stopped and this waits for it to finish first.
+	 */
+	public void start() {
+		Thread previous;
+		synchronized (this) {
+			running = false;
+			previous = thread;
+		}
+		// The previous Thread might still wait for a frame, it must not read frames anymore once the new one started
+		if (previous != null && previous != Thread.currentThread()) {
+			try {
+				previous.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		synchronized (this) {
+			if (thread != previous) {
+				// Started by another caller in the meantime
+				return;
+			}
+			running = true;
+			thread = new Thread(this, "MusicModeController");
+			thread.start();
+		}
+	}
+
+	/**
+	 * Runs until {@link #stop()} is called, use {@link #start()} to run it in its own Thread.
+	 */
 	public void run() {
-		running = true;
+		scheduler.reset(System.nanoTime());
 		while (keepRunning()) {
+			MusicMode musicMode;
+			Compositor compositor;
+			BeatDetector beatDetector;
+			synchronized (this) {
+				musicMode = this.musicMode;
+				compositor = this.compositor;
+				beatDetector = this.beatDetector;
+			}
 			try {
 				if (beatDetector.detect()) {
 					musicMode.beat();
-				} else {
-					musicMode.maintain();
+					if (compositor != null) {
+						compositor.render();
+						// The time from capturing the beat until the bridge acknowledged it is part of the latency compensated by predicted beats
+						beatDetector.getBeatPredictor().addLatencySample(beatDetector.getFrameAge() + compositor.getTarget().getDeliveryLatency());
+					}
+				}
+
+				long now = System.nanoTime();
+				long elapsed = scheduler.tick(now);
+				if (elapsed > 0) {
+					musicMode.maintain(elapsed);
+					if (compositor != null) {
+						compositor.render();
+					}
+					scheduler.endTick(now, System.nanoTime());
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -59,12 +131,35 @@ public class MusicModeController implements Runnable {
 	}
 
 	/**
-	 * Stops the MusicModeController, if it is running.
+	 * Stops the MusicModeController, if it is running. The Thread finishes after the current frame, see {@link #start()}.
 	 */
 	public synchronized void stop(){
 		running = false;
 	}
 
+	/**
+	 * @return ticks per second
+	 */
+	public double getRenderRate() {
+		return scheduler.getRate();
+	}
+
+	/**
+	 * Changes how often {@link MusicMode#maintain(long)} is called, this also limits the rate of commands send by animations.
+	 *
+	 * @param renderRate ticks per second
+	 */
+	public void setRenderRate(double renderRate) {
+		scheduler.setRate(renderRate);
+	}
+
+	/**
+	 * @return TickScheduler driving the ticks, e.g. to read its statistics
+	 */
+	public TickScheduler getScheduler() {
+		return scheduler;
+	}
+
 	/**
 	 * @return Returns the current MusicMode
 	 */
@@ -73,10 +168,26 @@ public class MusicModeController implements Runnable {
 	}
 
 	/**
-	 * @param musicMode update MusicMode
+	 * @param musicMode update MusicMode, which sends its commands directly
 	 */
 	public synchronized void setMusicMode(MusicMode musicMode) {
+		setMusicMode(musicMode, null);
+	}
+
+	/**
+	 * @param musicMode update MusicMode
+	 * @param compositor compositor the MusicMode writes into, rendered after every beat and tick. Null if the MusicMode sends its commands directly.
+	 */
+	public synchronized void setMusicMode(MusicMode musicMode, Compositor compositor) {
 		this.musicMode = musicMode;
+		this.compositor = compositor;
+	}
+
+	/**
+	 * @return compositor of the current MusicMode, null if the MusicMode sends its commands directly
+	 */
+	public synchronized Compositor getCompositor() {
+		return compositor;
 	}
 
 	/**
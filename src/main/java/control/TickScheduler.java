@@ -0,0 +1,146 @@
+package control;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Schedules the ticks of music modes at a fixed render rate, independent of the rate at which audio frames are read.
+ * The caller asks the scheduler whether a tick is due ({@link #tick(long)}) and passes the elapsed time of a due tick
+ * to {@link musicModes.MusicMode#maintain(long)}, so animations progress with time and not with the number of calls.
+ *
+ * Every tick has a budget, the time it may take to render and send its commands, by default the whole tick period.
+ * Ticks exceeding the budget are counted. If the caller falls behind, e.g. because a tick took too long,
+ * the missed ticks are skipped instead of rendered in a burst, so the rate of commands never exceeds the render rate.
+ *
+ * @author Alexander Liebald
+ */
+public class TickScheduler {
+	private long period;
+	private long budget;
+	private long nextTick;
+	private long lastTick;
+
+	private long ticks = 0;
+	private long skippedTicks = 0;
+	private long overBudget = 0;
+
+	/**
+	 * @param rate ticks per second
+	 */
+	public TickScheduler(double rate) {
+		setRate(rate);
+		reset(System.nanoTime());
+	}
+
+	/**
+	 * Starts a new sequence of ticks, the first tick is due one period after {@code now}.
+	 *
+	 * @param now current time in nanoseconds, see {@link System#nanoTime()}
+	 */
+	public synchronized void reset(long now) {
+		lastTick = now;
+		nextTick = now + period;
+	}
+
+	/**
+	 * Checks whether a tick is due.
+	 *
+	 * @param now current time in nanoseconds, see {@link System#nanoTime()}
+	 * @return time since the last tick in nanoseconds if a tick is due, 0 otherwise
+	 */
+	public synchronized long tick(long now) {
+		if (now - nextTick < 0) {
+			return 0;
+		}
+		long elapsed = now - lastTick;
+		lastTick = now;
+		nextTick += period;
+		if (now - nextTick >= 0) {
+			// Fell behind, skip the missed ticks
+			long missed = (now - nextTick) / period + 1;
+			skippedTicks += missed;
+			nextTick += missed * period;
+		}
+		ticks++;
+		return elapsed;
+	}
+
+	/**
+	 * Reports the end of a tick, to check it against the budget.
+	 *
+	 * @param start time the tick started in nanoseconds
+	 * @param end time the tick ended in nanoseconds
+	 */
+	public synchronized void endTick(long start, long end) {
+		if (end - start > budget) {
+			overBudget++;
+		}
+	}
+
+	/**
+	 * @return ticks per second
+	 */
+	public synchronized double getRate() {
+		return 1e9 / period;
+	}
+
+	/**
+	 * Changes the render rate, the budget is reset to the whole tick period.
+	 *
+	 * @param rate ticks per second, at least 1
+	 */
+	public synchronized void setRate(double rate) {
+		long newPeriod = (long) (1e9 / Math.max(1, rate));
+		nextTick += newPeriod - period;
+		period = newPeriod;
+		budget = newPeriod;
+	}
+
+	/**
+	 * @return time a tick may take in nanoseconds
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @param budget time a tick may take in nanoseconds
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return number of ticks
+	 */
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return number of ticks skipped because the caller fell behind
+	 */
+	public synchronized long getSkippedTicks() {
+		return skippedTicks;
+	}
+
+	/**
+	 * @return number of ticks which took longer than the budget
+	 */
+	public synchronized long getOverBudget() {
+		return overBudget;
+	}
+}
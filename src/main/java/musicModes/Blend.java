@@ -0,0 +1,40 @@
+package musicModes;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Rules for combining a {@link Layer} with the layers below it, see {@link Compositor}.
+ * Only the fields a layer has set are combined, the other fields of the layers below are kept.
+ * Colors and build in modes can not be blended, they always replace the color or mode below.
+ *
+ * @author Alexander Liebald
+ */
+public enum Blend {
+	/**
+	 * Every field set by the layer replaces the field below
+	 */
+	REPLACE,
+	/**
+	 * The brightness of the layer scales the brightness below (in percent) and the lights are only on if they are on in both layers,
+	 * e.g. to pulse over a color cycle
+	 */
+	MULTIPLY,
+	/**
+	 * The higher brightness wins and the lights are on if they are on in any of the layers, e.g. for flashes
+	 */
+	MAX
+}
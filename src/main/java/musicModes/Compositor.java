@@ -0,0 +1,250 @@
+package musicModes;
+
+import bridge.LightController;
+import bridge.Zone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static musicModes.Layer.*;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Combines the {@link Layer}s of several effects into one target state per zone and sends only what changed.
+ * Effects write into their own layer, e.g. a color cycle on the bottom layer and a pulse on a {@link Blend#MULTIPLY} layer above it.
+ * {@link #render()} blends all layers from bottom to top and compares the result with the state last send to the lights.
+ * Only fields that differ are send, so effects can repeat their state every tick without causing traffic.
+ * Once the target reports lost commands (see {@link LightController#getLostCommands()}), the sent state is forgotten
+ * and the next render sends the whole state again.
+ * If all four zones need the same change, a single command for {@link Zone#ALL} is send.
+ *
+ * While a zone is off (or in night light mode), only its power state is send. Its other changes are send once it is turned on again.
+ *
+ * All methods of the compositor and its layers are synchronized on the compositor.
+ *
+ * @author Alexander Liebald
+ */
+public class Compositor {
+	private final LightController target;
+	private final List<Layer> layers = new ArrayList<>();
+
+	// State send to the lights, indexed by zone (FIRST = 0) and field. UNSET if unknown.
+	private final int[][] sent = new int[ZONES][NUMBER_OF_FIELDS];
+	// Buffers for render()
+	private final int[][] composed = new int[ZONES][NUMBER_OF_FIELDS];
+	private final int[] changes = new int[ZONES];
+
+	private boolean changed = false;
+	private long commands = 0;
+	// Lost commands of the target at the last render
+	private long lostCommands;
+
+	/**
+	 * @param target bridge, queue or group of bridges receiving the commands
+	 */
+	public Compositor(LightController target) {
+		this.target = target;
+		lostCommands = target.getLostCommands();
+		invalidate();
+	}
+
+	/**
+	 * Creates a new layer on top of all existing layers.
+	 *
+	 * @param blend how the layer is combined with the layers below
+	 * @return the new layer
+	 */
+	public synchronized Layer createLayer(Blend blend) {
+		Layer layer = new Layer(this, blend);
+		layers.add(layer);
+		return layer;
+	}
+
+	/**
+	 * Removes a layer, the next render sends the state without it.
+	 *
+	 * @param layer layer created by this compositor
+	 */
+	public synchronized void removeLayer(Layer layer) {
+		if (layers.remove(layer)) {
+			changed = true;
+		}
+	}
+
+	/**
+	 * Forgets the state of the lights, the next render sends the whole state.
+	 * Should be called if commands reached the lights without passing the compositor.
+	 */
+	public synchronized void invalidate() {
+		for (int[] zone : sent) {
+			Arrays.fill(zone, UNSET);
+		}
+		changed = true;
+	}
+
+	/**
+	 * Blends all layers and sends the fields that changed since the last render.
+	 * Does nothing if no layer changed and the target did not lose commands. If sending fails, the failed and all following changes are send by the next render.
+	 *
+	 * @throws IOException if a command could not be send
+	 */
+	public synchronized void render() throws IOException {
+		long lost = target.getLostCommands();
+		if (lost != lostCommands) {
+			// A command send by this or an earlier render might not have reached the lights
+			lostCommands = lost;
+			invalidate();
+		}
+		if (!changed) {
+			return;
+		}
+		changed = false;
+
+		for (int zone = 0; zone < ZONES; zone++) {
+			Arrays.fill(composed[zone], UNSET);
+			for (Layer layer : layers) {
+				layer.blendInto(zone, composed[zone]);
+			}
+			if (composed[zone][BRIGHTNESS] != UNSET) {
+				composed[zone][BRIGHTNESS] = Math.max(0, Math.min(100, composed[zone][BRIGHTNESS]));
+			}
+		}
+
+		target.beginBatch();
+		try {
+			sendChanges(POWER);
+			sendChanges(COLOR);
+			sendChanges(MODE);
+			sendChanges(BRIGHTNESS);
+		} catch (IOException e) {
+			changed = true;
+			throw e;
+		} finally {
+			target.endBatch();
+		}
+	}
+
+	/**
+	 * Sends the changes of one field, merged into one command for all zones if possible.
+	 */
+	private void sendChanges(int field) throws IOException {
+		boolean any = false;
+		for (int zone = 0; zone < ZONES; zone++) {
+			int value = composed[zone][field];
+			boolean visible = field == POWER || composed[zone][POWER] == UNSET || composed[zone][POWER] == ON;
+			changes[zone] = value != UNSET && value != sent[zone][field] && visible ? value : UNSET;
+			any |= changes[zone] != UNSET;
+		}
+		if (!any) {
+			return;
+		}
+
+		if (changes[0] == changes[1] && changes[1] == changes[2] && changes[2] == changes[3]) {
+			send(Zone.ALL, field, changes[0]);
+			for (int zone = 0; zone < ZONES; zone++) {
+				accept(zone, field, changes[0]);
+			}
+			return;
+		}
+		for (int zone = 0; zone < ZONES; zone++) {
+			if (changes[zone] != UNSET) {
+				send(Zone.values()[zone + 1], field, changes[zone]);
+				accept(zone, field, changes[zone]);
+			}
+		}
+	}
+
+	private void send(Zone zone, int field, int value) throws IOException {
+		switch (field) {
+			case POWER:
+				if (value == ON) {
+					target.turnOn(zone);
+				} else if (value == OFF) {
+					target.turnOff(zone);
+				} else {
+					target.nightLight(zone);
+				}
+				break;
+			case COLOR:
+				if (value == WHITE) {
+					target.turnOnWhiteLight(zone);
+				} else {
+					target.setColor(zone, (byte) value);
+				}
+				break;
+			case MODE:
+				target.setMode(zone, value);
+				break;
+			case BRIGHTNESS:
+				target.setBrightness(zone, value);
+				break;
+		}
+		commands++;
+	}
+
+	/**
+	 * Updates the sent state after a command was send.
+	 */
+	private void accept(int zone, int field, int value) {
+		sent[zone][field] = value;
+		// A color ends the build in mode, a build in mode changes the color
+		if (field == COLOR) {
+			sent[zone][MODE] = UNSET;
+		} else if (field == MODE) {
+			sent[zone][COLOR] = UNSET;
+		}
+	}
+
+	/**
+	 * Forwards a command which is not part of the state of a layer directly to the lights.
+	 */
+	synchronized void forward(Command command) throws IOException {
+		command.sendTo(target);
+		commands++;
+	}
+
+	/**
+	 * Called by layers if their state changed.
+	 */
+	void markChanged() {
+		changed = true;
+	}
+
+	/**
+	 * @return number of commands send to the lights
+	 */
+	public synchronized long getCommands() {
+		return commands;
+	}
+
+	/**
+	 * @return the bridge, queue or group of bridges receiving the commands
+	 */
+	public LightController getTarget() {
+		return target;
+	}
+
+	/**
+	 * A command forwarded to the lights
+	 */
+	interface Command {
+		void sendTo(LightController lights) throws IOException;
+	}
+}
@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -27,11 +27,11 @@ import java.io.IOException;
  * @author Alexander Liebald
  */
 public class CyclicLights implements MusicMode {
-	private Bridge bridge;
+	private LightController bridge;
 	private byte lastColor = 0;
 
 
-	public CyclicLights(Bridge bridge) throws IOException {
+	public CyclicLights(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -44,7 +44,7 @@ public class CyclicLights implements MusicMode {
 	}
 
 	@Override
-	public void maintain() {
+	public void maintain(long elapsedNanos) {
 	}
 }
 
@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -27,11 +27,11 @@ import java.io.IOException;
  * @author Alexander Liebald
  */
 public class CyclicLightsMultipleColors implements MusicMode{
-	private final Bridge bridge;
+	private final LightController bridge;
 	private static final byte[] lastColor = new byte[]{0,20,40,60};
 	private static final Zone[] zones = new Zone[]{Zone.FIRST, Zone.SECOND, Zone.THIRD, Zone.FOURTH};
 
-	public CyclicLightsMultipleColors(Bridge bridge) throws IOException {
+	public CyclicLightsMultipleColors(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -45,6 +45,6 @@ public class CyclicLightsMultipleColors implements MusicMode{
 	}
 
 	@Override
-	public void maintain() {
+	public void maintain(long elapsedNanos) {
 	}
 }
@@ -0,0 +1,65 @@
+package musicModes;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Piecewise linear animation curve, e.g. the brightness after a beat.
+ * The curve is defined by keyframes (time in milliseconds, value), values between keyframes are interpolated linearly.
+ * Before the first keyframe the curve has the value of the first keyframe, after the last keyframe the value of the last keyframe.
+ *
+ * @author Alexander Liebald
+ */
+public class Envelope {
+	private final double[] times;
+	private final double[] values;
+
+	/**
+	 * @param times time of every keyframe in milliseconds, ascending
+	 * @param values value of every keyframe
+	 */
+	public Envelope(double[] times, double[] values) {
+		if (times.length == 0 || times.length != values.length) {
+			throw new IllegalArgumentException("Envelope needs the same number of times and values");
+		}
+		this.times = times.clone();
+		this.values = values.clone();
+	}
+
+	/**
+	 * @param millis time in milliseconds
+	 * @return value of the curve at {@code millis}
+	 */
+	public double valueAt(double millis) {
+		if (millis <= times[0]) {
+			return values[0];
+		}
+		for (int i = 1; i < times.length; i++) {
+			if (millis < times[i]) {
+				double position = (millis - times[i - 1]) / (times[i] - times[i - 1]);
+				return values[i - 1] + position * (values[i] - values[i - 1]);
+			}
+		}
+		return values[values.length - 1];
+	}
+
+	/**
+	 * @return time of the last keyframe in milliseconds, the curve does not change afterwards
+	 */
+	public double getDuration() {
+		return times[times.length - 1];
+	}
+}
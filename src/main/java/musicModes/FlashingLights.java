@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -27,11 +27,15 @@ import java.io.IOException;
  * @author Alexander Liebald
  */
 public class FlashingLights implements MusicMode {
-	private Bridge bridge;
-	private int turnedOn = 0; // Times maintain was called since the last beat
+	// Time the lights stay on after a beat in milliseconds, 10 audio frames at 86 frames per second
+	private static final double flashDuration = 116;
 
+	private LightController bridge;
+	private double sinceBeat = 0; // Time since the last beat in milliseconds
+	private boolean on = true;
 
-	public FlashingLights(Bridge bridge) throws IOException {
+
+	public FlashingLights(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -39,16 +43,17 @@ public class FlashingLights implements MusicMode {
 
 	@Override
 	public void beat() throws IOException {
-		turnedOn = 0;
+		sinceBeat = 0;
+		on = true;
 		bridge.turnOn(Zone.ALL);
 	}
 
 	@Override
-	public void maintain() throws IOException {
-		if(turnedOn > 8) {
+	public void maintain(long elapsedNanos) throws IOException {
+		sinceBeat += elapsedNanos / 1e6;
+		if (on && sinceBeat >= flashDuration) {
+			on = false;
 			bridge.turnOff(Zone.ALL);
-		} else {
-			turnedOn++;
 		}
 	}
 }
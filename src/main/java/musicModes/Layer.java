@@ -0,0 +1,214 @@
+package musicModes;
+
+import bridge.LightController;
+import bridge.Mode;
+import bridge.Zone;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Target state one effect wants for each zone, created by {@link Compositor#createLayer(Blend)}.
+ * A layer is a {@link LightController}, so any {@link MusicMode} can write into a layer instead of a bridge.
+ * Commands only change the state of the layer, the {@link Compositor} combines all layers and sends the changes.
+ *
+ * The state of a zone consists of the power (on, off or night light), the color (or white light), the build in mode and the brightness.
+ * Fields the layer never set are left to the layers below. Setting a color ends a build in mode and vice versa, like on the lights.
+ * Saturation, kelvin and the speed of build in modes are not part of the state and are forwarded to the lights directly.
+ *
+ * @author Alexander Liebald
+ */
+public class Layer implements LightController {
+	// Fields of the state of a zone
+	static final int POWER = 0;
+	static final int COLOR = 1;
+	static final int MODE = 2;
+	static final int BRIGHTNESS = 3;
+	static final int NUMBER_OF_FIELDS = 4;
+
+	// Value of fields which are not set
+	static final int UNSET = Integer.MIN_VALUE;
+	// Values of the power field
+	static final int OFF = 0;
+	static final int ON = 1;
+	static final int NIGHT_LIGHT = 2;
+	// Value of the color field for white light, colors are 0 - 255
+	static final int WHITE = 256;
+
+	// Number of single zones, Zone.ALL writes all of them
+	static final int ZONES = 4;
+
+	private final Compositor compositor;
+	private final Blend blend;
+	// State indexed by zone (FIRST = 0) and field
+	private final int[][] state = new int[ZONES][NUMBER_OF_FIELDS];
+
+	Layer(Compositor compositor, Blend blend) {
+		this.compositor = compositor;
+		this.blend = blend;
+		for (int[] zone : state) {
+			Arrays.fill(zone, UNSET);
+		}
+	}
+
+	@Override
+	public void turnOn(Zone zone) {
+		set(zone, POWER, ON);
+	}
+
+	@Override
+	public void turnOff(Zone zone) {
+		set(zone, POWER, OFF);
+	}
+
+	@Override
+	public void nightLight(Zone zone) {
+		set(zone, POWER, NIGHT_LIGHT);
+	}
+
+	@Override
+	public void turnOnWhiteLight(Zone zone) {
+		set(zone, COLOR, WHITE);
+	}
+
+	@Override
+	public void setColor(Zone zone, byte color) {
+		set(zone, COLOR, color & 0xFF);
+	}
+
+	@Override
+	public void setBrightness(Zone zone, int brightness) {
+		set(zone, BRIGHTNESS, brightness);
+	}
+
+	@Override
+	public void setMode(Zone zone, Mode mode) {
+		set(zone, MODE, mode.gebByte() & 0xFF);
+	}
+
+	@Override
+	public void setMode(Zone zone, int modeNr) {
+		set(zone, MODE, modeNr & 0xFF);
+	}
+
+	@Override
+	public void setSaturation(Zone zone, int saturation) throws IOException {
+		compositor.forward(lights -> lights.setSaturation(zone, saturation));
+	}
+
+	@Override
+	public void setKelvin(Zone zone, int kelvin) throws IOException {
+		compositor.forward(lights -> lights.setKelvin(zone, kelvin));
+	}
+
+	@Override
+	public void increaseSpeed(Zone zone) throws IOException {
+		compositor.forward(lights -> lights.increaseSpeed(zone));
+	}
+
+	@Override
+	public void decreaseSpeed(Zone zone) throws IOException {
+		compositor.forward(lights -> lights.decreaseSpeed(zone));
+	}
+
+	/**
+	 * Removes the whole state, the layers below become visible again.
+	 */
+	public void clear() {
+		synchronized (compositor) {
+			for (int[] zone : state) {
+				Arrays.fill(zone, UNSET);
+			}
+			compositor.markChanged();
+		}
+	}
+
+	/**
+	 * @return how this layer is combined with the layers below
+	 */
+	public Blend getBlend() {
+		return blend;
+	}
+
+	/**
+	 * Sets a field for one or, for {@link Zone#ALL}, all zones.
+	 */
+	private void set(Zone zone, int field, int value) {
+		synchronized (compositor) {
+			if (zone == Zone.ALL) {
+				for (int i = 0; i < ZONES; i++) {
+					setField(i, field, value);
+				}
+			} else {
+				setField(zone.ordinal() - 1, field, value);
+			}
+			compositor.markChanged();
+		}
+	}
+
+	private void setField(int zone, int field, int value) {
+		state[zone][field] = value;
+		// Colors end build in modes and build in modes replace the color
+		if (field == COLOR) {
+			state[zone][MODE] = UNSET;
+		} else if (field == MODE) {
+			state[zone][COLOR] = UNSET;
+		}
+	}
+
+	/**
+	 * Combines this layer with the state of the layers below.
+	 *
+	 * @param zone zone index, FIRST = 0
+	 * @param below combined state of the layers below, receives the result
+	 */
+	void blendInto(int zone, int[] below) {
+		int[] own = state[zone];
+
+		int power = own[POWER];
+		if (power != UNSET) {
+			if (blend == Blend.MULTIPLY && below[POWER] == OFF) {
+				power = OFF;
+			} else if (blend == Blend.MAX && below[POWER] == ON) {
+				power = ON;
+			}
+			below[POWER] = power;
+		}
+
+		if (own[COLOR] != UNSET) {
+			below[COLOR] = own[COLOR];
+			below[MODE] = UNSET;
+		} else if (own[MODE] != UNSET) {
+			below[MODE] = own[MODE];
+			below[COLOR] = UNSET;
+		}
+
+		int brightness = own[BRIGHTNESS];
+		if (brightness != UNSET) {
+			if (below[BRIGHTNESS] != UNSET) {
+				if (blend == Blend.MULTIPLY) {
+					brightness = below[BRIGHTNESS] * brightness / 100;
+				} else if (blend == Blend.MAX) {
+					brightness = Math.max(below[BRIGHTNESS], brightness);
+				}
+			}
+			below[BRIGHTNESS] = brightness;
+		}
+	}
+}
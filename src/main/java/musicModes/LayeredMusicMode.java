@@ -0,0 +1,51 @@
+package musicModes;
+
+import java.io.IOException;
+
+/*
+ *  Copyright 2020 Alexander Liebald
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/**
+ * Runs several MusicModes at once, each writing into its own {@link Layer} of a {@link Compositor}.
+ * E.g. {@link CyclicLights} on a {@link Blend#REPLACE} layer and {@link PulseLights} on a {@link Blend#MULTIPLY} layer
+ * change the color and pulse the brightness with every beat.
+ *
+ * @author Alexander Liebald
+ */
+public class LayeredMusicMode implements MusicMode {
+	private final MusicMode[] modes;
+
+	/**
+	 * @param modes MusicModes, from the bottom layer to the top layer
+	 */
+	public LayeredMusicMode(MusicMode... modes) {
+		this.modes = modes;
+	}
+
+	@Override
+	public void beat() throws IOException {
+		for (MusicMode mode : modes) {
+			mode.beat();
+		}
+	}
+
+	@Override
+	public void maintain(long elapsedNanos) throws IOException {
+		for (MusicMode mode : modes) {
+			mode.maintain(elapsedNanos);
+		}
+	}
+}
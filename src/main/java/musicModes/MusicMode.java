@@ -30,10 +30,13 @@ public interface MusicMode {
 	void beat() throws IOException;
 
 	/**
-	 * This method gets called when no beat is detected.
+	 * This method gets called at the render rate, independent of beats and of the rate audio is read at.
 	 * Depending on the implementation of this method, a
-	 * light effect will be executed. Some implementations also
+	 * light effect will be executed. Animations should progress by
+	 * {@code elapsedNanos}, not by the number of calls. Some implementations also
 	 * do nothing when this method is called.
+	 *
+	 * @param elapsedNanos time since the last call in nanoseconds
 	 */
-	void maintain() throws IOException;
+	void maintain(long elapsedNanos) throws IOException;
 }
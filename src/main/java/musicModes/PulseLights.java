@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -27,10 +27,15 @@ import java.io.IOException;
  * @author Alexander Liebald
  */
 public class PulseLights implements MusicMode {
+	// Brightness after a beat, the curve the lights followed at 86 audio frames per second
+	private static final Envelope pulse = new Envelope(new double[]{0, 348, 441, 720}, new double[]{110, 50, 34, 10});
+
+	// Time since the last beat in milliseconds, starts where the curve has a brightness of 80
+	private double sinceBeat = 174;
 	private byte brightness = 80;
-	private Bridge bridge;
+	private LightController bridge;
 
-	public PulseLights(Bridge bridge) throws IOException {
+	public PulseLights(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -38,23 +43,24 @@ public class PulseLights implements MusicMode {
 
 	@Override
 	public void beat() throws IOException {
+		sinceBeat = 0;
 		brightness = 110;
 		bridge.setBrightness(Zone.ALL, brightness);
 	}
 
 	@Override
-	public void maintain() throws IOException {
-		if (brightness > 50){
-			brightness -= 2;
-		} else if (brightness > 35){
-			brightness -= 2;
-		} else if (brightness > 10){
-			brightness -= 1;
-		} else {
+	public void maintain(long elapsedNanos) throws IOException {
+		if (sinceBeat > pulse.getDuration()) {
 			// return if brightness is unchanged
 			return;
 		}
+		sinceBeat += elapsedNanos / 1e6;
+		byte next = (byte) Math.round(pulse.valueAt(sinceBeat));
+		if (next == brightness) {
+			return;
+		}
 
+		brightness = next;
 		bridge.setBrightness(Zone.ALL, brightness);
 	}
 }
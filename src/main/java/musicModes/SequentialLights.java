@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -28,11 +28,11 @@ import java.util.Random;
  * @author Alexander Liebald
  */
 public class SequentialLights implements MusicMode {
-	private Bridge bridge;
+	private LightController bridge;
 	private final Random random = new Random();
 
 
-	public SequentialLights(Bridge bridge) throws IOException {
+	public SequentialLights(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -44,6 +44,6 @@ public class SequentialLights implements MusicMode {
 	}
 
 	@Override
-	public void maintain() {
+	public void maintain(long elapsedNanos) {
 	}
 }
@@ -1,6 +1,6 @@
 package musicModes;
 
-import bridge.Bridge;
+import bridge.LightController;
 import bridge.Zone;
 
 import java.io.IOException;
@@ -27,10 +27,10 @@ import java.io.IOException;
  * @author Alexander Liebald
  */
 public class SirenLights implements MusicMode {
-	private Bridge bridge;
+	private LightController bridge;
 	private byte run = 0;
 
-	public SirenLights(Bridge bridge) throws IOException {
+	public SirenLights(LightController bridge) throws IOException {
 		this.bridge = bridge;
 		bridge.turnOn(Zone.ALL);
 		bridge.setBrightness(Zone.ALL,100);
@@ -109,6 +109,6 @@ public class SirenLights implements MusicMode {
 	}
 
 	@Override
-	public void maintain() {
+	public void maintain(long elapsedNanos) {
 	}
 }
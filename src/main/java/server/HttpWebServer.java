@@ -5,12 +5,21 @@ import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import settings.Settings;
 import audioProcessing.BeatDetector;
+import audioProcessing.DetectionEngine;
 import bridge.Bridge;
 import bridge.BridgeException;
+import bridge.BridgeGroup;
+import bridge.CommandQueue;
+import bridge.LightController;
 import bridge.Mode;
+import bridge.Priority;
+import bridge.RateLimiter;
+import bridge.WireTrace;
 import bridge.Zone;
 import control.MusicModeController;
 import musicModes.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import javax.sound.sampled.LineUnavailableException;
 import java.awt.*;
@@ -20,6 +29,7 @@ import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 
@@ -48,8 +58,9 @@ public class HttpWebServer {
 	private int port;
 	private String site, customCSS, customJs;
 	private Bridge bridge;
+	private BridgeGroup bridgeGroup;
+	private CommandQueue commands;
 	private MusicModeController musicModeController;
-	private Thread mmcThread;
 	private Settings settings;
 
 	public HttpWebServer(int port, Settings settings, String path) throws IOException {
@@ -85,9 +96,11 @@ public class HttpWebServer {
 	}
 
 	private void setupBridgeAndMusicModeController() {
+		WireTrace.getShared().setEnabled(settings.getWireTrace());
 		if (!settings.getBridgeIpAddress().equals("")) {
 			try {
-				bridge = new Bridge(settings.getBridgeIpAddress(), settings.getBridgePort(), false, 250);
+				bridge = new Bridge(InetAddress.getByName(settings.getBridgeIpAddress()), settings.getBridgePort(), true, 250, settings.getMaxCommandsInFlight());
+				createCommandQueue(250);
 			} catch (UnknownHostException e) {
 				e.printStackTrace();
 				// TODO Exception Handling
@@ -101,7 +114,7 @@ public class HttpWebServer {
 
 			if (!settings.getActiveTargetDataLine().equals("none")) {
 				try {
-					musicModeController = new MusicModeController(null, new BeatDetector(settings.getBeatCooldown(), settings.getActiveTargetDataLine(), settings.getSensitivity()));
+					musicModeController = new MusicModeController(null, createBeatDetector(), settings.getRenderRate());
 				} catch (LineUnavailableException e) {
 					settings.resetActiveTargetDataLine();
 				}
@@ -109,6 +122,92 @@ public class HttpWebServer {
 		}
 	}
 
+	/**
+	 * Creates a BeatDetector for the activeTargetDataLine using the current settings.
+	 *
+	 * @return new BeatDetector
+	 * @throws LineUnavailableException if the activeTargetDataLine can not be opened
+	 */
+	private BeatDetector createBeatDetector() throws LineUnavailableException {
+		BeatDetector beatDetector = new BeatDetector(settings.getBeatCooldown(), settings.getActiveTargetDataLine(), settings.getSensitivity());
+		beatDetector.setEngine(DetectionEngine.fromString(settings.getBeatDetectionEngine()));
+		beatDetector.setCooldownFromTempo(settings.getCooldownFromTempo());
+		beatDetector.setPredictBeats(settings.getPredictBeats());
+		beatDetector.getBeatPredictor().setLatencyOffset(settings.getLatencyCompensation());
+		return beatDetector;
+	}
+
+	/**
+	 * Creates the CommandQueue for the current bridge. If additional bridges are set, the commands are send to all bridges using a BridgeGroup.
+	 * The additional bridges are connected in parallel in the background and join the group once they are connected,
+	 * so a dead bridge neither delays the others nor the response to the web ui.
+	 *
+	 * @param timeout timeout in milliseconds for the additional bridges
+	 */
+	private void createCommandQueue(int timeout) {
+		applyRateLimit(bridge);
+		String[] additionalBridges = settings.getAdditionalBridgeIpAddresses();
+		if (additionalBridges.length == 0) {
+			commands = new CommandQueue(bridge);
+			return;
+		}
+
+		LinkedList<Bridge> bridges = new LinkedList<>();
+		bridges.add(bridge);
+		BridgeGroup group = new BridgeGroup(bridges);
+		for (String ip : additionalBridges) {
+			connectAdditionalBridge(group, ip, timeout);
+		}
+		bridgeGroup = group;
+		commands = new CommandQueue(group);
+	}
+
+	/**
+	 * Connects an additional bridge on its own thread and adds it to {@code group} once the session is established.
+	 * The bridge is closed again if the group was closed in the meantime.
+	 */
+	private void connectAdditionalBridge(BridgeGroup group, String ip, int timeout) {
+		int port = settings.getBridgePort();
+		int maxInFlight = settings.getMaxCommandsInFlight();
+		Thread thread = new Thread(() -> {
+			try {
+				Bridge additionalBridge = new Bridge(InetAddress.getByName(ip), port, true, timeout, maxInFlight);
+				applyRateLimit(additionalBridge);
+				if (!group.add(additionalBridge)) {
+					additionalBridge.close();
+				}
+			} catch (IOException | BridgeException e) {
+				System.out.println("Failed to connect to additional bridge " + ip + ": " + e.getMessage());
+			}
+		}, "BridgeConnect-" + ip);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sets a new adaptive rate limiter for {@code bridge} if maxCommandsPerSecond is set, removes the rate limiter otherwise.
+	 */
+	private void applyRateLimit(Bridge bridge) {
+		bridge.setRateLimiter(settings.getMaxCommandsPerSecond() > 0 ? new RateLimiter(settings.getMaxCommandsPerSecond()) : null);
+	}
+
+	/**
+	 * Stops the CommandQueue and closes all bridges
+	 */
+	private void closeBridges() {
+		if (commands != null) {
+			commands.stop();
+		}
+		if (bridgeGroup != null) {
+			bridgeGroup.close();
+		} else if (bridge != null) {
+			bridge.close();
+		}
+		bridge = null;
+		bridgeGroup = null;
+		commands = null;
+	}
+
 	private class Handler implements HttpHandler {
 		private String site;
 
@@ -122,21 +221,27 @@ public class HttpWebServer {
 			String response, requestBody = getRequestBody(t);
 			String mimeType = "text/plain";
 			boolean utf_8 = true;
-			System.out.println("requested: " + request + ", RequestMethod: " + t.getRequestMethod() + ", RequestBody: " + requestBody);
+			System.out.println("requested: " + request + ", RequestMethod: " + t.getRequestMethod());
 
 			switch (request.getPath()) {
 				case "/command": {
 					// select the correct response
 					System.out.println("request recognised as command");
-					if (!settings.getBridgeIpAddress().equals("")) {
+					if (!settings.getBridgeIpAddress().equals("") && commands != null) {
 						// check if a music mode is selected (music modes do not support zone selection)
 						if(requestBody.startsWith("setMode:M", 8)) {
 							response = handleCommand(requestBody, Zone.ALL);
 						} else {
 							StringBuilder sb = new StringBuilder();
-							// Apply command to all requested zones
-							for (Zone zone : getZones(requestBody)) {
-								sb.append(handleCommand(requestBody, zone));
+							// Apply command to all requested zones, as one batch so the queue can merge them
+							LightController interactive = commands.interactive();
+							interactive.beginBatch();
+							try {
+								for (Zone zone : getZones(requestBody)) {
+									sb.append(handleCommand(requestBody, zone));
+								}
+							} finally {
+								interactive.endBatch();
 							}
 							response = sb.toString();
 						}
@@ -165,12 +270,92 @@ public class HttpWebServer {
 					mimeType = "image/vnd.microsoft.icon";
 					System.out.println("	return empty String. No favicon.ico right now");
 					break;
+				} case "/tempo.json": {
+					// Current tempo estimation, bpm is 0 if no audio input is active or the tempo is not known yet
+					double bpm = 0;
+					double confidence = 0;
+					if (musicModeController != null) {
+						bpm = musicModeController.getBeatDetector().getBpm();
+						confidence = musicModeController.getBeatDetector().getTempoConfidence();
+					}
+					response = new JSONObject().put("bpm", bpm).put("confidence", confidence).toString();
+					mimeType = "application/json";
+					break;
+				} case "/queue.json": {
+					// Statistics of the command queue and each of its lanes, all counters are 0 if no bridge is created
+					JSONObject queue = new JSONObject().put("pending", 0).put("submitted", 0).put("coalesced", 0).put("sent", 0).put("savedPackets", 0);
+					JSONObject lanes = new JSONObject();
+					CommandQueue queued = commands;
+					if (queued != null) {
+						queue.put("pending", queued.getPending())
+								.put("submitted", queued.getSubmitted())
+								.put("coalesced", queued.getCoalesced())
+								.put("sent", queued.getSent())
+								.put("savedPackets", queued.getSavedPackets());
+						for (Priority priority : Priority.values()) {
+							CommandQueue.Lane lane = queued.getLane(priority);
+							lanes.put(priority.name().toLowerCase(), new JSONObject()
+									.put("pending", lane.getPending())
+									.put("submitted", lane.getSubmitted())
+									.put("coalesced", lane.getCoalesced())
+									.put("dropped", lane.getDropped())
+									.put("sent", lane.getSent())
+									.put("averageWait", lane.getAverageWait())
+									.put("maxWait", lane.getMaxWait()));
+						}
+					}
+					queue.put("lanes", lanes);
+					response = queue.toString();
+					mimeType = "application/json";
+					break;
+				} case "/bridges.json": {
+					// Statistics of every bridge and its rate limiter, empty if no bridge is created
+					JSONArray bridges = new JSONArray();
+					BridgeGroup group = bridgeGroup;
+					Bridge single = bridge;
+					if (group != null) {
+						for (BridgeGroup.Member member : group.getMembers()) {
+							bridges.put(getStatistics(member.getBridge())
+									.put("sent", member.getSent())
+									.put("failures", member.getFailures())
+									.put("backlog", member.getBacklog())
+									.put("heldBack", member.getHeldBack())
+									.put("replaced", member.getReplaced())
+									.put("lastLatency", member.getLastLatency())
+									.put("maxLatency", member.getMaxLatency()));
+						}
+					} else if (single != null) {
+						bridges.put(getStatistics(single));
+					}
+					response = bridges.toString();
+					mimeType = "application/json";
+					break;
+				} case "/trace.txt": {
+					// Packets exchanged with the bridges, only recorded if the wire trace is enabled in the settings
+					response = WireTrace.getShared().dump();
+					mimeType = "text/plain";
+					break;
+				} case "/audio.json": {
+					// Health of the audio capture, all counters are 0 if no audio input is active
+					JSONObject audio = new JSONObject().put("overruns", 0).put("underruns", 0).put("lineOverruns", 0).put("bufferedFrames", 0)
+							.put("skippedTicks", 0).put("overBudgetTicks", 0);
+					if (musicModeController != null) {
+						BeatDetector beatDetector = musicModeController.getBeatDetector();
+						audio.put("overruns", beatDetector.getOverruns())
+								.put("underruns", beatDetector.getUnderruns())
+								.put("lineOverruns", beatDetector.getLineOverruns())
+								.put("bufferedFrames", beatDetector.getBufferedFrames())
+								.put("skippedTicks", musicModeController.getScheduler().getSkippedTicks())
+								.put("overBudgetTicks", musicModeController.getScheduler().getOverBudget());
+					}
+					response = audio.toString();
+					mimeType = "application/json";
+					break;
 				} case "/settings.json": {
 					response = settings.getSettings();
 					mimeType = "application/json";
 					utf_8 = false;
 					System.out.println("	return set to settings.json");
-					System.out.println("\n\n" + response + "\n\n");
 					break;
 				} case "/applySettings": {
 					mimeType = "application/json";
@@ -180,7 +365,7 @@ public class HttpWebServer {
 				} case "/resetSettings": {
 					settings.setToDefaultSettings();
 					// Reset Bridge & MusicModeController
-					bridge = null;
+					closeBridges();
 					musicModeController = null;
 					setupBridgeAndMusicModeController();
 
@@ -221,6 +406,7 @@ public class HttpWebServer {
 				musicModeController.stop();
 			}
 
+			// Commands of the user are always send, the lights might have been changed by another remote
 			// get command
 			int end = request.indexOf('&');
 			String command = request.substring(8, end);
@@ -235,7 +421,7 @@ public class HttpWebServer {
 				} catch (NumberFormatException e){
 					return "ERROR: invalid color";
 				}
-				bridge.setColor(zone, (byte) num);
+				commands.interactive().forced().setColor(zone, (byte) num);
 				return "Set color to " + num;
 			}
 
@@ -248,7 +434,7 @@ public class HttpWebServer {
 					return "ERROR: Invalid brightness";
 				}
 				System.out.println("Setting brightness to: " + brightness);
-				bridge.setBrightness(zone, brightness);
+				commands.interactive().forced().setBrightness(zone, brightness);
 				return "Set brightness to " + brightness;
 			}
 
@@ -261,68 +447,74 @@ public class HttpWebServer {
 						return "ERROR: Select audio input to use music modes";
 					}
 
-					// Music Modes
+					// Music Modes write into the layers of a compositor, which only sends what changed
+					Compositor compositor = new Compositor(commands);
 					switch (command.substring(8)) {
 						case "MCyclic": {
-							musicModeController.setMusicMode(new CyclicLights(bridge));
+							musicModeController.setMusicMode(new CyclicLights(compositor.createLayer(Blend.REPLACE)), compositor);
 							break;
 						}
 						case "MCyclicMultipleColors": {
-							musicModeController.setMusicMode(new CyclicLightsMultipleColors(bridge));
+							musicModeController.setMusicMode(new CyclicLightsMultipleColors(compositor.createLayer(Blend.REPLACE)), compositor);
+							break;
+						}
+						case "MCyclicPulse": {
+							MusicMode colors = new CyclicLights(compositor.createLayer(Blend.REPLACE));
+							MusicMode pulse = new PulseLights(compositor.createLayer(Blend.MULTIPLY));
+							musicModeController.setMusicMode(new LayeredMusicMode(colors, pulse), compositor);
 							break;
 						}
 						case "MFlashing": {
-							musicModeController.setMusicMode(new FlashingLights(bridge));
+							musicModeController.setMusicMode(new FlashingLights(compositor.createLayer(Blend.REPLACE)), compositor);
 							break;
 						}
 						case "MPulse": {
-							musicModeController.setMusicMode(new PulseLights(bridge));
+							musicModeController.setMusicMode(new PulseLights(compositor.createLayer(Blend.REPLACE)), compositor);
 							break;
 						}
 						case "MSequential": {
-							musicModeController.setMusicMode(new SequentialLights(bridge));
+							musicModeController.setMusicMode(new SequentialLights(compositor.createLayer(Blend.REPLACE)), compositor);
 							break;
 						}
 						case "MSiren": {
-							musicModeController.setMusicMode(new SirenLights(bridge));
+							musicModeController.setMusicMode(new SirenLights(compositor.createLayer(Blend.REPLACE)), compositor);
 							break;
 						}
 						default: {
 							return "ERROR: Unknown Mode";
 						}
 					}
-					// Start Thread for MusicModeController
-					mmcThread = new Thread(musicModeController);
-					mmcThread.start();
+					// Start Thread for MusicModeController, replacing the Thread of the previous music mode
+					musicModeController.start();
 				} else {
 					// Build in modes
 					switch (command.substring(8)) {
 						case "ColorWheel": {
-							bridge.setMode(zone, Mode.COLOR_WHEEL);
+							commands.interactive().forced().setMode(zone, Mode.COLOR_WHEEL);
 							break;
 						}
 						case "BreathingColorWheel": {
-							bridge.setMode(zone, Mode.BREATHING_COLOR_WHEEL);
+							commands.interactive().forced().setMode(zone, Mode.BREATHING_COLOR_WHEEL);
 							break;
 						}
 						case "Party": {
-							bridge.setMode(zone, Mode.PARTY);
+							commands.interactive().forced().setMode(zone, Mode.PARTY);
 							break;
 						}
 						case "PartyMultipleColors": {
-							bridge.setMode(zone, Mode.PARTY_MULTIPLE_COLORS);
+							commands.interactive().forced().setMode(zone, Mode.PARTY_MULTIPLE_COLORS);
 							break;
 						}
 						case "FlashRed": {
-							bridge.setMode(zone, Mode.FLASH_RED);
+							commands.interactive().forced().setMode(zone, Mode.FLASH_RED);
 							break;
 						}
 						case "FlashGreen": {
-							bridge.setMode(zone, Mode.FLASH_GREEN);
+							commands.interactive().forced().setMode(zone, Mode.FLASH_GREEN);
 							break;
 						}
 						case "FlashBlue": {
-							bridge.setMode(zone, Mode.FLASH_BLUE);
+							commands.interactive().forced().setMode(zone, Mode.FLASH_BLUE);
 							break;
 						}
 						default: {
@@ -336,19 +528,19 @@ public class HttpWebServer {
 			// Other basic commands
 			switch (command) {
 				case "turnOn": {
-					bridge.turnOn(zone);
+					commands.interactive().forced().turnOn(zone);
 					return "Turned on";
 				}
 				case "turnOff": {
-					bridge.turnOff(zone);
+					commands.interactive().forced().turnOff(zone);
 					return "turned off";
 				}
 				case "decreaseSpeed": {
-					bridge.decreaseSpeed(zone);
+					commands.interactive().forced().decreaseSpeed(zone);
 					return "decreased speed";
 				}
 				case "increaseSpeed": {
-					bridge.increaseSpeed(zone);
+					commands.interactive().forced().increaseSpeed(zone);
 					return "increased speed";
 				}
 			}
@@ -356,6 +548,34 @@ public class HttpWebServer {
 			return "ERROR: Command not found!";
 		}
 
+		/**
+		 * @return statistics every bridge has, whether it is part of a BridgeGroup or not, including its rate limiter
+		 */
+		private JSONObject getStatistics(Bridge bridge) {
+			return new JSONObject().put("ip", bridge.getIp().getHostAddress())
+					.put("skipped", bridge.getSkippedCommands())
+					.put("timeouts", bridge.getTimeouts())
+					.put("inFlight", bridge.getInFlight())
+					.put("deliveryLatency", bridge.getDeliveryLatency() / 1e6)
+					.put("rateLimiter", getStatistics(bridge.getRateLimiter()));
+		}
+
+		/**
+		 * @return current rate and backoff state of a rate limiter, null if rate limiting is disabled
+		 */
+		private JSONObject getStatistics(RateLimiter limiter) {
+			if (limiter == null) {
+				return null;
+			}
+			return new JSONObject().put("rate", limiter.getRate())
+					.put("backingOff", limiter.isBackingOff())
+					.put("decreases", limiter.getDecreases())
+					.put("smoothedRtt", limiter.getSmoothedRtt())
+					.put("minRtt", limiter.getMinRtt())
+					.put("acquired", limiter.getAcquired())
+					.put("throttledTime", limiter.getThrottledTime());
+		}
+
 		private String getRequestBody(HttpExchange t) throws IOException {
 			return new String(t.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
 		}
@@ -371,6 +591,9 @@ public class HttpWebServer {
 			String oldActiveTargetDataLine = settings.getActiveTargetDataLine();
 			String oldIp = settings.getBridgeIpAddress();
 			int oldPort = settings.getBridgePort();
+			int oldMaxCommandsInFlight = settings.getMaxCommandsInFlight();
+			int oldMaxCommandsPerSecond = settings.getMaxCommandsPerSecond();
+			String[] oldAdditionalBridges = settings.getAdditionalBridgeIpAddresses();
 
 			try {
 				settings.updateSettings(requestBody);
@@ -378,26 +601,39 @@ public class HttpWebServer {
 				return "ERROR: Failed to update settings";
 			}
 
-			// setup bridge / replace bridge if ip or port changed
-			if (!settings.getBridgeIpAddress().equals("") && (bridge == null || !oldIp.equals(settings.getBridgeIpAddress()) || oldPort != settings.getBridgePort())) {
+			// setup bridge / replace bridges if ip, port, pipelining or the additional bridges changed
+			if (!settings.getBridgeIpAddress().equals("") && (bridge == null || !oldIp.equals(settings.getBridgeIpAddress()) || oldPort != settings.getBridgePort()
+					|| oldMaxCommandsInFlight != settings.getMaxCommandsInFlight() || !Arrays.equals(oldAdditionalBridges, settings.getAdditionalBridgeIpAddresses()))) {
 				// stop musicModeController, since it might use the old bridge
 				if (musicModeController != null) {
 					musicModeController.stop();
 					musicModeController.setMusicMode(null);
 				}
 
+				closeBridges();
+
 				try {
-					bridge = new Bridge(settings.getBridgeIpAddress(), settings.getBridgePort(), false, 200); // TODO add timeout to settings
+					bridge = new Bridge(InetAddress.getByName(settings.getBridgeIpAddress()), settings.getBridgePort(), true, 200, settings.getMaxCommandsInFlight()); // TODO add timeout to settings
+					createCommandQueue(200);
 					System.out.println("created new Bridge");
 				} catch (Exception ignored) {
 					errorLog = "ERROR: Failed to created new Bridge.";
 				}
+			} else if (bridge != null && oldMaxCommandsPerSecond != settings.getMaxCommandsPerSecond()) {
+				// Replace the rate limiters of the existing bridges
+				if (bridgeGroup != null) {
+					for (BridgeGroup.Member member : bridgeGroup.getMembers()) {
+						applyRateLimit(member.getBridge());
+					}
+				} else {
+					applyRateLimit(bridge);
+				}
 			}
 
 			if (musicModeController == null && !settings.getActiveTargetDataLine().equals("none")) {
 				// Setup new MusicModeController if necessary
 				try {
-					musicModeController = new MusicModeController(null, new BeatDetector(settings.getBeatCooldown(), settings.getActiveTargetDataLine(), settings.getSensitivity()));
+					musicModeController = new MusicModeController(null, createBeatDetector(), settings.getRenderRate());
 				} catch (LineUnavailableException e) {
 					settings.resetActiveTargetDataLine();
 					errorLog += "ERROR: Failed to get TargetDataLine. Please restart the server.";
@@ -406,8 +642,10 @@ public class HttpWebServer {
 			} else if (musicModeController != null && !oldActiveTargetDataLine.equals(settings.getActiveTargetDataLine())){
 				// Replace BeatDetector if activeTargetDataLine changed
 				musicModeController.stop();
+				// Release the old line and its capture thread before opening the new one
+				musicModeController.getBeatDetector().close();
 				try {
-					musicModeController.setBeatDetector(new BeatDetector(settings.getBeatCooldown(), settings.getActiveTargetDataLine(), settings.getSensitivity()));
+					musicModeController.setBeatDetector(createBeatDetector());
 				} catch (LineUnavailableException e) {
 					settings.resetActiveTargetDataLine();
 					errorLog += "ERROR: Failed to get TargetDataLine. Please restart the server.";
@@ -424,6 +662,25 @@ public class HttpWebServer {
 				musicModeController.getBeatDetector().setSensitivity(settings.getSensitivity());
 			}
 
+			// check if BeatDetectionEngine changed
+			if (musicModeController != null && !settings.getBeatDetectionEngine().equals(musicModeController.getBeatDetector().getEngine().name())) {
+				musicModeController.getBeatDetector().setEngine(DetectionEngine.fromString(settings.getBeatDetectionEngine()));
+			}
+
+			// check if cooldownFromTempo changed
+			if (musicModeController != null && settings.getCooldownFromTempo() != musicModeController.getBeatDetector().isCooldownFromTempo()) {
+				musicModeController.getBeatDetector().setCooldownFromTempo(settings.getCooldownFromTempo());
+			}
+
+			WireTrace.getShared().setEnabled(settings.getWireTrace());
+
+			// check if the beat prediction changed
+			if (musicModeController != null) {
+				musicModeController.getBeatDetector().setPredictBeats(settings.getPredictBeats());
+				musicModeController.getBeatDetector().getBeatPredictor().setLatencyOffset(settings.getLatencyCompensation());
+				musicModeController.setRenderRate(settings.getRenderRate());
+			}
+
 			if (errorLog.equals("")) {
 				return settings.getSettings();
 			} else {
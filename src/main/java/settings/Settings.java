@@ -1,6 +1,7 @@
 package settings;
 
 import audioProcessing.BeatDetector;
+import audioProcessing.DetectionEngine;
 import bridge.Bridge;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -193,6 +194,17 @@ public class Settings {
 		setBridgePort((Integer) in.getNumber("bridgePort"));
 		setBeatCooldown(in.getInt("beatCooldown"));
 		setSensitivity(in.getDouble("sensitivity"));
+		setMaxCommandsInFlight(in.optInt("maxCommandsInFlight", getMaxCommandsInFlight()));
+		setMaxCommandsPerSecond(in.optInt("maxCommandsPerSecond", getMaxCommandsPerSecond()));
+		setBeatDetectionEngine(in.optString("beatDetectionEngine", getBeatDetectionEngine()));
+		setCooldownFromTempo(in.optBoolean("cooldownFromTempo", getCooldownFromTempo()));
+		setPredictBeats(in.optBoolean("predictBeats", getPredictBeats()));
+		setLatencyCompensation(in.optInt("latencyCompensation", getLatencyCompensation()));
+		setWireTrace(in.optBoolean("wireTrace", getWireTrace()));
+		setRenderRate(in.optInt("renderRate", getRenderRate()));
+		if (in.has("additionalBridgeIpAddresses")) {
+			settings.put("additionalBridgeIpAddresses", in.getJSONArray("additionalBridgeIpAddresses"));
+		}
 		if (setActiveTargetDataLine((String) in.get("activeTargetDataLine"))) {
 			// If the TargetDataLine is invalid it will not be updated, but a warning will be printed
 			System.out.println("WARNING: invalid TargetDataLine");
@@ -287,4 +299,151 @@ public class Settings {
 	public void setBeatCooldown(int beatCooldown) {
 		settings.put("beatCooldown", beatCooldown);
 	}
+
+	/**
+	 * maxCommandsInFlight defines how many commands can be send to the bridge without waiting for its acknowledgement.
+	 * A value of 0 disables pipelining, every command waits for the answer of the bridge.
+	 *
+	 * @return returns maxCommandsInFlight, 0 if the setting does not exist
+	 */
+	public int getMaxCommandsInFlight() {
+		return settings.optInt("maxCommandsInFlight", 0);
+	}
+
+	/**
+	 * @param maxCommandsInFlight number of commands that can be send to the bridge without waiting for its acknowledgement. 0 disables pipelining.
+	 */
+	public void setMaxCommandsInFlight(int maxCommandsInFlight) {
+		settings.put("maxCommandsInFlight", Math.max(0, maxCommandsInFlight));
+	}
+
+	/**
+	 * additionalBridgeIpAddresses lists bridges which receive the same commands as the bridge at bridgeIpAddress
+	 *
+	 * @return ip addresses of the additional bridges, empty if the setting does not exist
+	 */
+	public String[] getAdditionalBridgeIpAddresses() {
+		JSONArray arr = settings.optJSONArray("additionalBridgeIpAddresses");
+		if (arr == null) {
+			return new String[0];
+		}
+		String[] ret = new String[arr.length()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (String) arr.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * maxCommandsPerSecond is the highest rate the adaptive rate limiter of a bridge may reach.
+	 * A value of 0 disables rate limiting.
+	 *
+	 * @return returns maxCommandsPerSecond, 0 if the setting does not exist
+	 */
+	public int getMaxCommandsPerSecond() {
+		return settings.optInt("maxCommandsPerSecond", 0);
+	}
+
+	/**
+	 * @param maxCommandsPerSecond highest rate of commands send to a bridge, 0 disables rate limiting
+	 */
+	public void setMaxCommandsPerSecond(int maxCommandsPerSecond) {
+		settings.put("maxCommandsPerSecond", Math.max(0, maxCommandsPerSecond));
+	}
+
+	/**
+	 * beatDetectionEngine is the name of the {@link DetectionEngine} used by the BeatDetector
+	 *
+	 * @return returns beatDetectionEngine, ENERGY if the setting does not exist
+	 */
+	public String getBeatDetectionEngine() {
+		return settings.optString("beatDetectionEngine", DetectionEngine.ENERGY.name());
+	}
+
+	/**
+	 * @param beatDetectionEngine name of a {@link DetectionEngine}. Unknown names are replaced with ENERGY.
+	 */
+	public void setBeatDetectionEngine(String beatDetectionEngine) {
+		settings.put("beatDetectionEngine", DetectionEngine.fromString(beatDetectionEngine).name());
+	}
+
+	/**
+	 * cooldownFromTempo derives the beat cooldown from the estimated tempo instead of using beatCooldown, while the tempo is reliable
+	 *
+	 * @return returns cooldownFromTempo, false if the setting does not exist
+	 */
+	public boolean getCooldownFromTempo() {
+		return settings.optBoolean("cooldownFromTempo", false);
+	}
+
+	/**
+	 * @param cooldownFromTempo true to derive the beat cooldown from the estimated tempo
+	 */
+	public void setCooldownFromTempo(boolean cooldownFromTempo) {
+		settings.put("cooldownFromTempo", cooldownFromTempo);
+	}
+
+	/**
+	 * predictBeats fires beats predicted from the tempo ahead of time, to compensate the latency of the bridge and the lights
+	 *
+	 * @return returns predictBeats, false if the setting does not exist
+	 */
+	public boolean getPredictBeats() {
+		return settings.optBoolean("predictBeats", false);
+	}
+
+	/**
+	 * @param predictBeats true to fire predicted beats ahead of time
+	 */
+	public void setPredictBeats(boolean predictBeats) {
+		settings.put("predictBeats", predictBeats);
+	}
+
+	/**
+	 * latencyCompensation is the time in milliseconds predicted beats are fired early, in addition to the measured time until the bridge acknowledges commands
+	 *
+	 * @return returns latencyCompensation, 0 if the setting does not exist
+	 */
+	public int getLatencyCompensation() {
+		return settings.optInt("latencyCompensation", 0);
+	}
+
+	/**
+	 * @param latencyCompensation additional time in milliseconds predicted beats are fired early, e.g. the delay of the bulbs
+	 */
+	public void setLatencyCompensation(int latencyCompensation) {
+		settings.put("latencyCompensation", Math.max(0, latencyCompensation));
+	}
+
+	/**
+	 * wireTrace records every packet exchanged with the bridges in memory, see /trace.txt
+	 *
+	 * @return returns wireTrace, false if the setting does not exist
+	 */
+	public boolean getWireTrace() {
+		return settings.optBoolean("wireTrace", false);
+	}
+
+	/**
+	 * @param wireTrace true to record the packets exchanged with the bridges
+	 */
+	public void setWireTrace(boolean wireTrace) {
+		settings.put("wireTrace", wireTrace);
+	}
+
+	/**
+	 * renderRate is how many times per second music modes update their animations, e.g. the fading of PulseLights
+	 *
+	 * @return returns renderRate, 30 if the setting does not exist
+	 */
+	public int getRenderRate() {
+		return settings.optInt("renderRate", 30);
+	}
+
+	/**
+	 * @param renderRate animation updates per second, between 1 and 86 (the rate audio frames are read at)
+	 */
+	public void setRenderRate(int renderRate) {
+		settings.put("renderRate", Math.max(1, Math.min(86, renderRate)));
+	}
 }
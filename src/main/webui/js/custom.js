@@ -293,6 +293,14 @@ function settingsReady (set) {
 
 	bridgeSelector.value			= settings.bridgeIpAddress;
 	targetDataLineSelector.value	= settings.activeTargetDataLine;
+	document.getElementById('beatDetectionEngine').value = settings.beatDetectionEngine || "ENERGY";
+	document.getElementById('cooldownFromTempo').checked = settings.cooldownFromTempo === true;
+	document.getElementById('predictBeats').checked = settings.predictBeats === true;
+	document.getElementById('latencyCompensation').valueAsNumber = settings.latencyCompensation || 0;
+	document.getElementById('renderRate').valueAsNumber = settings.renderRate || 30;
+	document.getElementById('maxCommandsPerSecond').valueAsNumber = settings.maxCommandsPerSecond || 0;
+	document.getElementById('maxCommandsInFlight').valueAsNumber = settings.maxCommandsInFlight || 0;
+	document.getElementById('wireTrace').checked = settings.wireTrace === true;
 
 	showCustomColors();
 
@@ -308,6 +316,14 @@ function settingsReady (set) {
 function applySettings() {
 	// update settings json
 	settings.activeTargetDataLine		= document.getElementById('activeTargetDataLine').value;
+	settings.beatDetectionEngine		= document.getElementById('beatDetectionEngine').value;
+	settings.cooldownFromTempo			= document.getElementById('cooldownFromTempo').checked;
+	settings.predictBeats				= document.getElementById('predictBeats').checked;
+	settings.latencyCompensation		= document.getElementById('latencyCompensation').valueAsNumber || 0;
+	settings.renderRate					= document.getElementById('renderRate').valueAsNumber || 30;
+	settings.maxCommandsPerSecond		= document.getElementById('maxCommandsPerSecond').valueAsNumber || 0;
+	settings.maxCommandsInFlight		= document.getElementById('maxCommandsInFlight').valueAsNumber || 0;
+	settings.wireTrace					= document.getElementById('wireTrace').checked;
 	settings.openBrowserOnStart			= document.getElementById('openBrowserOnStart').checked;
 	settings.clientSettings.debugMode	= document.getElementById("debugMode").checked;
 	settings.bridgePort					= document.getElementById('bridgePort').valueAsNumber;
@@ -519,6 +535,10 @@ document.getElementById("cyclicLightsMCTab").onclick = function () {
 	setMusicMode("CyclicMultipleColors", "cyclicLightsMCTab");
 }
 
+document.getElementById("cyclicPulseTab").onclick = function () {
+	setMusicMode("CyclicPulse", "cyclicPulseTab");
+}
+
 document.getElementById("flashingLightsTab").onclick = function () {
 	setMusicMode("Flashing", "flashingLightsTab");
 }